@@ -0,0 +1,160 @@
+package template;
+
+import java.util.List;
+
+import logist.task.TaskDistribution;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * The reactive MDP of one vehicle, with states and decisions flattened into
+ * dense integer ids and primitive arrays.
+ *
+ * A state is a (city, task destination) pair and has the id city * n + destination,
+ * where the slot destination == city stands for "no task available".
+ * The decisions of state s are the ids decisionStart[s] until decisionStart[s+1]
+ * and the transitions of decision d are stored in CSR format, from
+ * transitionStart[d] until transitionStart[d+1].
+ */
+class MarkovModel {
+
+	final int numCities;
+	final int numStates;
+	final int numDecisions;
+	final City[] cities;
+
+	final int[] decisionStart;
+	final int[] decisionCity;
+	final boolean[] decisionPickup;
+	final double[] rewards;
+
+	final int[] transitionStart;
+	final int[] transitionState;
+	final double[] transitionProbability;
+
+	MarkovModel(Topology topology, TaskDistribution td, int costPerKm) {
+		List<City> cityList = topology.cities();
+		TopologyCache distances = TopologyCache.of(topology);
+		this.numCities = cityList.size();
+		this.numStates = numCities*numCities;
+		this.cities = new City[numCities];
+		for (City city : cityList) {
+			cities[city.id] = city;
+		}
+
+		// a pickup for every task destination, a move for every neighbour
+		decisionStart = new int[numStates + 1];
+		int count = 0;
+		for (int state = 0; state < numStates; state++) {
+			decisionStart[state] = count;
+			City city = cities[stateCity(state)];
+			count += city.neighbors().size() + (hasTask(state) ? 1 : 0);
+		}
+		decisionStart[numStates] = count;
+		this.numDecisions = count;
+
+		decisionCity = new int[numDecisions];
+		decisionPickup = new boolean[numDecisions];
+		rewards = new double[numDecisions];
+		for (int state = 0; state < numStates; state++) {
+			City city = cities[stateCity(state)];
+			int d = decisionStart[state];
+			// same ordering as the city list, the pickup coming before the move to the same city
+			for (City destination : cities) {
+				if (destination.equals(city)) {
+					continue;
+				}
+				if (hasTask(state) && destination.id == stateDestination(state)) {
+					decisionCity[d] = destination.id;
+					decisionPickup[d] = true;
+					rewards[d] = reward(td, distances, city, destination, true, costPerKm);
+					d++;
+				}
+				if (city.hasNeighbor(destination)) {
+					decisionCity[d] = destination.id;
+					decisionPickup[d] = false;
+					rewards[d] = reward(td, distances, city, destination, false, costPerKm);
+					d++;
+				}
+			}
+		}
+
+		// the only reachable states are the ones located in the destination city
+		int[] cityTransitionStart = new int[numCities + 1];
+		int[] cityTransitionState = new int[numStates];
+		double[] cityTransitionProbability = new double[numStates];
+		int nonZero = 0;
+		for (City city : cities) {
+			cityTransitionStart[city.id] = nonZero;
+			for (City destination : cities) {
+				double probability = td.probability(city, destination.equals(city) ? null : destination);
+				if (probability > 0) {
+					cityTransitionState[nonZero] = stateIndex(city.id, destination.id);
+					cityTransitionProbability[nonZero] = probability;
+					nonZero++;
+				}
+			}
+		}
+		cityTransitionStart[numCities] = nonZero;
+
+		transitionStart = new int[numDecisions + 1];
+		int total = 0;
+		for (int d = 0; d < numDecisions; d++) {
+			transitionStart[d] = total;
+			total += cityTransitionStart[decisionCity[d] + 1] - cityTransitionStart[decisionCity[d]];
+		}
+		transitionStart[numDecisions] = total;
+
+		transitionState = new int[total];
+		transitionProbability = new double[total];
+		for (int d = 0; d < numDecisions; d++) {
+			int from = cityTransitionStart[decisionCity[d]];
+			int length = cityTransitionStart[decisionCity[d] + 1] - from;
+			System.arraycopy(cityTransitionState, from, transitionState, transitionStart[d], length);
+			System.arraycopy(cityTransitionProbability, from, transitionProbability, transitionStart[d], length);
+		}
+	}
+
+	int stateIndex(int city, int destination) {
+		return stateIndex(numCities, city, destination);
+	}
+
+	// the id of a state, the destination being -1 when there is no task
+	static int stateIndex(int numCities, int city, int destination) {
+		return city*numCities + (destination < 0 ? city : destination);
+	}
+
+	int stateCity(int state) {
+		return state / numCities;
+	}
+
+	int stateDestination(int state) {
+		return hasTask(state) ? state % numCities : -1;
+	}
+
+	boolean hasTask(int state) {
+		return state / numCities != state % numCities;
+	}
+
+	// a decision packed in one int, as stored in the policy tables
+	static int packDecision(int city, boolean pickup) {
+		return city << 1 | (pickup ? 1 : 0);
+	}
+
+	static int packedCity(int decision) {
+		return decision >>> 1;
+	}
+
+	static boolean packedPickup(int decision) {
+		return (decision & 1) != 0;
+	}
+
+	private static double reward(TaskDistribution td, TopologyCache distances, City startCity, City endCity, boolean pickup, int costPerKm) {
+		double cost = distances.distance(startCity, endCity)*costPerKm;
+		if (pickup) {
+			return td.reward(startCity, endCity) - cost;
+		} else {
+			return -cost;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package template;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import logist.task.TaskDistribution;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Stores the policy tables computed by value iteration on disk, so that later
+ * runs with the same topology, task distribution, cost per km and discount
+ * factor can skip value iteration.
+ *
+ * Every policy is kept in its own file, named after the hash of those inputs:
+ * a header (magic number, number of states) followed by one packed decision
+ * per state. The files are read back through a memory mapping.
+ */
+class PolicyCache {
+
+	private static final int MAGIC = 0x52504f4c;
+	private static final int HEADER_BYTES = 2*Integer.BYTES;
+
+	private final File directory;
+
+	PolicyCache(File directory) {
+		this.directory = directory;
+	}
+
+	// SHA-1 of everything the policy depends on
+	static String key(Topology topology, TaskDistribution td, int costPerKm, double discount, double epsilon) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			TopologyCache distances = TopologyCache.of(topology);
+			out.writeInt(topology.size());
+			for (City city : topology.cities()) {
+				out.writeInt(city.id);
+				out.writeUTF(city.name);
+				for (City neighbor : city.neighbors()) {
+					out.writeInt(neighbor.id);
+					out.writeDouble(distances.distance(city, neighbor));
+				}
+				out.writeInt(-1);
+				out.writeDouble(td.probability(city, null));
+				for (City destination : topology.cities()) {
+					out.writeDouble(td.probability(city, destination));
+					out.writeInt(td.reward(city, destination));
+				}
+			}
+			out.writeInt(costPerKm);
+			out.writeDouble(discount);
+			out.writeDouble(epsilon);
+			out.flush();
+
+			StringBuilder key = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-1").digest(bytes.toByteArray())) {
+				key.append(String.format("%02x", b));
+			}
+			return key.toString();
+		} catch (IOException | NoSuchAlgorithmException exc) {
+			throw new IllegalStateException("Could not hash the policy inputs.", exc);
+		}
+	}
+
+	// the cached policy, or null if there is none for this key
+	int[] load(String key, int numStates) {
+		Path path = file(key);
+		if (!Files.isRegularFile(path)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() != HEADER_BYTES + (long) numStates*Integer.BYTES) {
+				return null;
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != numStates) {
+				return null;
+			}
+			int[] policy = new int[numStates];
+			buffer.asIntBuffer().get(policy);
+			return policy;
+		} catch (IOException exc) {
+			System.out.println("There was a problem reading the policy cache file "+path+".");
+			return null;
+		}
+	}
+
+	void store(String key, int[] policy) {
+		Path path = file(key);
+		try {
+			Files.createDirectories(directory.toPath());
+			// written next to the final file and then renamed, concurrent runs never see half a policy
+			Path temporary = Files.createTempFile(directory.toPath(), key, ".tmp");
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + policy.length*Integer.BYTES);
+			buffer.putInt(MAGIC);
+			buffer.putInt(policy.length);
+			buffer.asIntBuffer().put(policy);
+			buffer.rewind();
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			try {
+				Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException exc) {
+				Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException exc) {
+			System.out.println("There was a problem writing the policy cache file "+path+".");
+		}
+	}
+
+	private Path file(String key) {
+		return new File(directory, "policy-"+key+".bin").toPath();
+	}
+}
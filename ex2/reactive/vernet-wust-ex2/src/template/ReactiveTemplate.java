@@ -1,5 +1,6 @@
 package template;
 
+import java.io.File;
 import java.util.*;
 
 import logist.simulation.Vehicle;
@@ -18,10 +19,22 @@ public class ReactiveTemplate implements ReactiveBehavior {
 	private Random random;
 	private double discount;
 	private int numActions;
+	private int logInterval;
+	private int threads;
+	private ValueIteration.Solver solver;
+	private PolicyCache policyCache;
 	private Agent myAgent;
 	private TaskDistribution taskDistribution;
 	private Topology topology;
-	private Map<State, Decision> bestDecisions;
+	private City[] cities;
+	// the move to every city, indexed by city id
+	private Move[] moves;
+	// the packed decision of every state, indexed by vehicle id and then by state id
+	private int[][] bestDecisions;
+	// the expected reward of a task in every city, indexed by city id
+	private double[] expectedRewards;
+	// the move of the dummy agent from every city, indexed by city id
+	private Move[] dummyMoves;
 
 	@Override
 	public void setup(Topology topology, TaskDistribution td, Agent agent) {
@@ -31,14 +44,41 @@ public class ReactiveTemplate implements ReactiveBehavior {
 		Double discount = agent.readProperty("discount-factor", Double.class,
 				0.95);
 
+		// Reads the number of threads used by value iteration, 1 runs the sweeps sequentially
+		Integer threads = agent.readProperty("vi-threads", Integer.class, 1);
+
+		String solverName = agent.readProperty("vi-solver", String.class, "JACOBI");
+
+		// Throws IllegalArgumentException if the solver is unknown
+		this.solver = ValueIteration.Solver.valueOf(solverName.toUpperCase());
+
+		// Prints the profit every logInterval actions, 0 disables it
+		Integer logInterval = agent.readProperty("log-interval", Integer.class, 1);
+
+		// Policies are cached in this directory if it is set
+		String policyCacheDirectory = agent.readProperty("policy-cache", String.class, "");
+		this.policyCache = policyCacheDirectory.isEmpty() ? null : new PolicyCache(new File(policyCacheDirectory));
+
 		this.random = new Random();
 		this.discount = discount;
+		this.threads = threads;
 		this.numActions = 0;
+		this.logInterval = logInterval;
 		this.myAgent = agent;
 		this.taskDistribution = td;
 		this.topology = topology;
+
+		this.cities = new City[topology.size()];
+		this.moves = new Move[topology.size()];
+		for(City city: topology.cities()){
+			cities[city.id] = city;
+			moves[city.id] = new Move(city);
+		}
+
 		if(agent.name().equals("reactive-rla")) {
 			this.bestDecisions = computeBestDecisions(0.01);
+		} else if(!agent.name().equals("reactive-random")) {
+			computeDummyMoves();
 		}
 	}
 
@@ -49,49 +89,31 @@ public class ReactiveTemplate implements ReactiveBehavior {
 		String name = myAgent.name();
 
 		if(name.equals("reactive-rla")) {
-			State state;
-			if (availableTask == null) {
-				state = new State(vehicle, vehicle.getCurrentCity(), null);
-			} else {
-				state = new State(vehicle, vehicle.getCurrentCity(), availableTask.deliveryCity);
-			}
-			Decision decision = bestDecisions.get(state);
+			City currentCity = vehicle.getCurrentCity();
+			int taskDestination = availableTask == null ? -1 : availableTask.deliveryCity.id;
+			int decision = bestDecisions[vehicle.id()][MarkovModel.stateIndex(cities.length, currentCity.id, taskDestination)];
 
-			if (decision.pickup) {
+			if (MarkovModel.packedPickup(decision)) {
 				action = new Pickup(availableTask);
 			} else {
-				action = new Move(decision.destinationCity);
+				action = moves[MarkovModel.packedCity(decision)];
 			}
 		} else if(name.equals("reactive-random")){
 			if (availableTask == null || random.nextDouble() > discount) {
 				City currentCity = vehicle.getCurrentCity();
-				action = new Move(currentCity.randomNeighbor(random));
+				action = moves[currentCity.randomNeighbor(random).id];
 			} else {
 				action = new Pickup(availableTask);
 			}
 		} else {
 			if (availableTask == null) {
-				City currentCity = vehicle.getCurrentCity();
-				double maxReward = 0;
-				City nextCity = null;
-				for(City city: currentCity.neighbors()){
-					double reward = 0;
-					for(City city2: topology.cities()){
-						reward += taskDistribution.probability(city, city2)*taskDistribution.reward(city, city2);
-					}
-					// goes to the neighboring city with the highest expected reward
-					if(reward > maxReward){
-						maxReward = reward;
-						nextCity = city;
-					}
-				}
-				action = new Move(nextCity);
+				action = dummyMoves[vehicle.getCurrentCity().id];
 			} else {
 				action = new Pickup(availableTask);
 			}
 		}
 
-		if (numActions >= 1) {
+		if (numActions >= 1 && logInterval > 0 && numActions % logInterval == 0) {
 			System.out.println("The total profit for "+name+" after "+numActions+" actions is "+myAgent.getTotalProfit()+" (average profit: "+(myAgent.getTotalProfit() / (double)numActions)+")");
 		}
 		numActions++;
@@ -99,221 +121,76 @@ public class ReactiveTemplate implements ReactiveBehavior {
 		return action;
 	}
 
-	private List<State> generateStates(){
-		List<State> states = new ArrayList<>();
-		for(Vehicle vehicle: myAgent.vehicles()){
-			for(City city: topology.cities()){
-				for(City taskDestinationCity: topology.cities()){
-					if(!taskDestinationCity.equals(city)) {
-						states.add(new State(vehicle, city, taskDestinationCity));
-					}
-				}
-				states.add(new State(vehicle, city, null));
-			}
-		}
-		return states;
-	}
-
-	private Map<State, List<Decision>> generateDecisionsForEveryStates(List<State> states){
-		HashMap<State, List<Decision>> decisions = new HashMap<>();
-		for(State state: states) {
-			decisions.put(state, generateDecisionsForState(state));
-		}
-		return decisions;
-	}
+	// The MDP of a vehicle only depends on its cost per km: one policy is computed
+	// for every distinct cost per km and shared by all the vehicles having it.
+	private int[][] computeBestDecisions(double epsilon){
+		Map<Integer, int[]> policies = new HashMap<>();
 
-	private List<Decision> generateDecisionsForState(State state){
-		List<Decision> decisions = new ArrayList<>();
-		for(City city: topology.cities()){
-			if(!city.equals(state.city)) {
-				if(state.taskDestinationCity != null && state.taskDestinationCity.equals(city)) {
-					decisions.add(new Decision(city, true));
-				}
-				if(state.city.hasNeighbor(city)) {
-					decisions.add(new Decision(city, false));
-				}
-			}
+		int maxVehicleId = 0;
+		for(Vehicle vehicle: myAgent.vehicles()){
+			maxVehicleId = Math.max(maxVehicleId, vehicle.id());
 		}
-		return decisions;
-	}
-
-	private Map<StateDecisionKey, Double> generateRewards(List<State> states, Map<State, List<Decision>> decisionsForEveryStates){
-		HashMap<StateDecisionKey, Double> rewards = new HashMap<>();
 
-		for(State state: states){
-			for(Decision decision: decisionsForEveryStates.get(state)) {
-				StateDecisionKey sdk = new StateDecisionKey(state, decision);
-				rewards.put(sdk, reward(state, decision));
+		int[][] bestDecisions = new int[maxVehicleId + 1][];
+		for(Vehicle vehicle: myAgent.vehicles()){
+			int[] policy = policies.get(vehicle.costPerKm());
+			if(policy == null) {
+				policy = computePolicy(vehicle.costPerKm(), epsilon);
+				policies.put(vehicle.costPerKm(), policy);
 			}
+			bestDecisions[vehicle.id()] = policy;
 		}
 
-		return rewards;
-	}
-
-	private Map<State, Decision> computeBestDecisions(double epsilon){
-		List<State> states = generateStates();
-		Map<State, List<Decision>> decisionsForEveryStates = generateDecisionsForEveryStates(states);
-		Map<StateDecisionKey, Double> rewards = generateRewards(states, decisionsForEveryStates);
-
-		Map<StateDecisionKey, Double> qValues = new HashMap<>();
-		Map<State, Double> vValues = new HashMap<>();
-		Map<State, Decision> bestDecisions = new HashMap<>();
-
-		int count = 0;
-		double difference;
-		Map<State, Double> oldVValues;
-		do {
-			oldVValues = new HashMap<>(vValues);
-			for (State state: states) {
-				for (Decision decision: decisionsForEveryStates.get(state)) {
-					double transitionSum = 0;
-					for (State state2: states) {
-						transitionSum += transitionProbability(state, decision, state2) * vValues.getOrDefault(state2, 0.0);
-					}
-					StateDecisionKey sdk = new StateDecisionKey(state, decision);
-					qValues.put(sdk, rewards.get(sdk) + discount*transitionSum);
-				}
-
-				double max = 0;
-				StateDecisionKey bestSDK = new StateDecisionKey();
-				for(Map.Entry<StateDecisionKey, Double> entry : qValues.entrySet()){
-					if(entry.getKey().state.equals(state) && entry.getValue() > max){
-						max = entry.getValue();
-						bestSDK = entry.getKey();
-					}
-				}
-				bestDecisions.put(bestSDK.state, bestSDK.decision);
-				vValues.put(bestSDK.state, max);
-			}
-			difference = computeDifference(oldVValues, vValues);
-			count++;
-		} while(difference > epsilon);
-
-		System.out.println("Value iteration converged after "+count+" iterations.");
+		System.out.println(myAgent.vehicles().size()+" vehicle(s) share "+policies.size()+" policy table(s).");
 
 		return bestDecisions;
 	}
 
-	private double computeDifference(Map<State, Double> oldVValues, Map<State, Double> vValues){
-		double maxDifference = 0;
-		for(Map.Entry<State, Double> entry : vValues.entrySet()){
-			double difference = Math.abs(entry.getValue() - oldVValues.getOrDefault(entry.getKey(), 0.0));
-			if(difference > maxDifference){
-				maxDifference = difference;
+	// the packed policy table for vehicles with the given cost per km, read from the cache when possible
+	private int[] computePolicy(int costPerKm, double epsilon){
+		// the key hashes the whole model, so it is only built when the cache is used
+		String key = null;
+		if(policyCache != null) {
+			key = PolicyCache.key(topology, taskDistribution, costPerKm, discount, epsilon);
+			int[] policy = policyCache.load(key, topology.size()*topology.size());
+			if(policy != null) {
+				System.out.println("Policy loaded from the cache ("+key+").");
+				return policy;
 			}
 		}
-		return maxDifference;
-	}
-
-	private Double reward(State state, Decision decision){
 
-		City startCity = state.city;
-		City endCity = decision.destinationCity;
-
-		City stepCity = startCity;
-		if(decision.pickup){
-			List<City> path = stepCity.pathTo(endCity);
-			double cost = 0;
-			for (City city : path) {
-				double distance = stepCity.distanceTo(city);
-				cost += distance*state.vehicle.costPerKm();
-				stepCity = city;
-			}
-			return taskDistribution.reward(startCity, endCity) - cost;
-		} else {
-			return -startCity.distanceTo(endCity)*state.vehicle.costPerKm();
-		}
-	}
+		MarkovModel model = new MarkovModel(topology, taskDistribution, costPerKm);
+		ValueIteration valueIteration = new ValueIteration(model, discount, threads);
+		valueIteration.solve(solver, epsilon);
+		System.out.println("Value iteration ("+solver+") converged after "+valueIteration.statistics()+".");
 
-	private double transitionProbability(State state1, Decision decision, State state2){
-		if(decision.destinationCity.equals(state2.city)){
-			return taskDistribution.probability(state2.city, state2.taskDestinationCity);
+		int[] policy = valueIteration.policy();
+		if(policyCache != null) {
+			policyCache.store(key, policy);
 		}
-		return 0;
+		return policy;
 	}
 
-	private class State {
-		private Vehicle vehicle;
-		private City city;
-		private City taskDestinationCity;
-
-		public State(Vehicle vehicle, City city, City taskDestinationCity) {
-			this.vehicle = vehicle;
-			this.city = city;
-			this.taskDestinationCity = taskDestinationCity;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if(obj != null && obj instanceof State) {
-				State s = (State)obj;
-				if(taskDestinationCity != null && s.taskDestinationCity != null) {
-					return vehicle.equals(s.vehicle) && city.equals(s.city) && taskDestinationCity.equals(s.taskDestinationCity);
-				} else if (taskDestinationCity == null && s.taskDestinationCity == null){
-					return vehicle.equals(s.vehicle) && city.equals(s.city);
-				}
+	// the dummy agent goes to the neighboring city with the highest expected reward
+	private void computeDummyMoves(){
+		expectedRewards = new double[cities.length];
+		for(City city: cities){
+			for(City city2: cities){
+				expectedRewards[city.id] += taskDistribution.probability(city, city2)*taskDistribution.reward(city, city2);
 			}
-			return false;
 		}
 
-		@Override
-		public int hashCode() {
-			if(taskDestinationCity != null) {
-				return Objects.hash(vehicle.hashCode(), city.hashCode(), taskDestinationCity.hashCode());
-			}else{
-				return Objects.hash(vehicle.hashCode(), city.hashCode());
-			}
-		}
-	}
-
-	private class Decision {
-		private City destinationCity;
-		private boolean pickup;
-
-		public Decision(City city, boolean pickup) {
-			this.destinationCity = city;
-			this.pickup = pickup;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if(obj != null && obj instanceof Decision) {
-				Decision d = (Decision)obj;
-				return destinationCity.equals(d.destinationCity) && pickup == d.pickup;
-			}
-			return false;
-		}
-
-		@Override
-		public int hashCode() {
-			return Objects.hash(destinationCity.hashCode(), pickup);
-		}
-	}
-
-	private class StateDecisionKey {
-		private State state;
-		private Decision decision;
-
-		public StateDecisionKey(){
-		}
-
-		public StateDecisionKey(State state, Decision decision) {
-			this.state = state;
-			this.decision = decision;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if(obj != null && obj instanceof StateDecisionKey) {
-				StateDecisionKey sdk = (StateDecisionKey)obj;
-				return state.equals(sdk.state) && decision.equals(sdk.decision);
+		dummyMoves = new Move[cities.length];
+		for(City currentCity: cities){
+			double maxReward = 0;
+			City nextCity = null;
+			for(City city: currentCity.neighbors()){
+				if(expectedRewards[city.id] > maxReward){
+					maxReward = expectedRewards[city.id];
+					nextCity = city;
+				}
 			}
-			return false;
-		}
-
-		@Override
-		public int hashCode() {
-			return Objects.hash(state.hashCode(), decision.hashCode());
+			dummyMoves[currentCity.id] = nextCity == null ? null : moves[nextCity.id];
 		}
 	}
 }
@@ -0,0 +1,86 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * All-pairs shortest path distances and successors of a topology. They are
+ * computed once per topology and shared by every agent running on it, so the
+ * cost functions never go through the platform's graph lookups.
+ *
+ * Both tables are flat arrays indexed by from.id * n + to.id.
+ */
+final class TopologyCache {
+
+	private static final Map<Topology, TopologyCache> caches = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private final int numCities;
+	private final City[] cities;
+	private final double[] distances;
+	// the city following from on the shortest path to to, -1 if both are the same
+	private final int[] successors;
+
+	private TopologyCache(Topology topology) {
+		this.numCities = topology.size();
+		this.cities = new City[numCities];
+		for (City city : topology.cities()) {
+			cities[city.id] = city;
+		}
+
+		this.distances = new double[numCities * numCities];
+		this.successors = new int[numCities * numCities];
+		for (City from : cities) {
+			for (City to : cities) {
+				int index = from.id * numCities + to.id;
+				if (from.equals(to)) {
+					successors[index] = -1;
+				} else {
+					distances[index] = from.distanceTo(to);
+					successors[index] = from.pathTo(to).get(0).id;
+				}
+			}
+		}
+	}
+
+	static TopologyCache of(Topology topology) {
+		return caches.computeIfAbsent(topology, TopologyCache::new);
+	}
+
+	int size() {
+		return numCities;
+	}
+
+	City city(int id) {
+		return cities[id];
+	}
+
+	double distance(City from, City to) {
+		return distances[from.id * numCities + to.id];
+	}
+
+	double distance(int from, int to) {
+		return distances[from * numCities + to];
+	}
+
+	// the neighbour of from to move to in order to reach to
+	City next(City from, City to) {
+		return cities[successors[from.id * numCities + to.id]];
+	}
+
+	// same as City.pathTo: the cities after from on the shortest path, to included
+	List<City> path(City from, City to) {
+		List<City> path = new ArrayList<>();
+		City city = from;
+		while (!city.equals(to)) {
+			city = next(city, to);
+			path.add(city);
+		}
+		return path;
+	}
+}
@@ -0,0 +1,396 @@
+package template;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Value iteration on a {@link MarkovModel}. Every backup only visits the
+ * non-zero transitions of the model.
+ *
+ * The JACOBI solver does synchronous sweeps that only read the values of the
+ * previous sweep, so with more than one thread the states are split into
+ * ranges that are backed up in parallel. The other solvers update the values
+ * in place and always run on a single thread.
+ */
+class ValueIteration {
+
+	enum Solver {JACOBI, GAUSS_SEIDEL, PRIORITIZED_SWEEPING, POLICY_ITERATION}
+
+	// number of policy evaluation sweeps between two improvements of the policy
+	private static final int EVALUATION_SWEEPS = 20;
+
+	private final MarkovModel model;
+	private final double discount;
+	private final int threads;
+
+	private final double[] qValues;
+	private double[] vValues;
+	private final int[] bestDecisions;
+	private long backups;
+	private int sweeps;
+	private long[] sweepTimes;
+
+	ValueIteration(MarkovModel model, double discount, int threads) {
+		this.model = model;
+		this.discount = discount;
+		this.threads = Math.max(1, threads);
+		this.qValues = new double[model.numDecisions];
+		this.vValues = new double[model.numStates];
+		this.bestDecisions = new int[model.numStates];
+		this.sweepTimes = new long[64];
+	}
+
+	void solve(Solver solver, double epsilon) {
+		switch (solver) {
+			case JACOBI:
+				solveJacobi(epsilon);
+				break;
+			case GAUSS_SEIDEL:
+				solveGaussSeidel(epsilon);
+				break;
+			case PRIORITIZED_SWEEPING:
+				solvePrioritizedSweeping(epsilon);
+				break;
+			case POLICY_ITERATION:
+				solvePolicyIteration(epsilon);
+				break;
+			default:
+				throw new AssertionError("Should not happen.");
+		}
+	}
+
+	private void solveJacobi(double epsilon) {
+		ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		// ranges small enough to balance the load, large enough to amortize the forks
+		int grain = Math.max(64, model.numStates / (4*threads));
+
+		double[] oldVValues = new double[model.numStates];
+		double difference;
+		try {
+			do {
+				double[] swap = oldVValues;
+				oldVValues = vValues;
+				vValues = swap;
+				long startTime = System.nanoTime();
+				if (pool == null) {
+					difference = sweep(oldVValues, vValues, 0, model.numStates);
+				} else {
+					difference = pool.invoke(new SweepTask(oldVValues, vValues, 0, model.numStates, grain));
+				}
+				recordSweep(System.nanoTime() - startTime, model.numStates);
+			} while (difference > epsilon);
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+	}
+
+	// the backups of a sweep already see the values updated earlier in the same sweep
+	private void solveGaussSeidel(double epsilon) {
+		double difference;
+		do {
+			long startTime = System.nanoTime();
+			difference = sweep(vValues, vValues, 0, model.numStates);
+			recordSweep(System.nanoTime() - startTime, model.numStates);
+		} while (difference > epsilon);
+	}
+
+	// Backs up the state with the largest bound on its Bellman residual first.
+	// When the value of a state changes by delta, the residual of every state having
+	// a decision that leads to it grows by at most discount*delta*(arrival probability).
+	private void solvePrioritizedSweeping(double epsilon) {
+		double[] arrivalProbability = new double[model.numStates];
+		for (int t = 0; t < model.transitionState.length; t++) {
+			arrivalProbability[model.transitionState[t]] = model.transitionProbability[t];
+		}
+		int[][] predecessors = cityPredecessors();
+
+		// every state is backed up at least once
+		ResidualQueue queue = new ResidualQueue(model.numStates);
+		for (int state = 0; state < model.numStates; state++) {
+			queue.add(state, Double.POSITIVE_INFINITY);
+		}
+
+		long startTime = System.nanoTime();
+		int backupsInSweep = 0;
+		while (!queue.isEmpty() && queue.maxResidual() > epsilon) {
+			int state = queue.poll();
+			double oldValue = vValues[state];
+			sweep(vValues, vValues, state, state + 1);
+			double delta = Math.abs(vValues[state] - oldValue);
+
+			if (delta > 0) {
+				for (int predecessor : predecessors[model.stateCity(state)]) {
+					queue.increase(predecessor, discount*delta*arrivalProbability[state]);
+				}
+			}
+
+			// report the time of every numStates backups as one sweep
+			if (++backupsInSweep == model.numStates) {
+				long endTime = System.nanoTime();
+				recordSweep(endTime - startTime, backupsInSweep);
+				startTime = endTime;
+				backupsInSweep = 0;
+			}
+		}
+		if (backupsInSweep > 0) {
+			recordSweep(System.nanoTime() - startTime, backupsInSweep);
+		}
+	}
+
+	// Modified policy iteration: an improvement sweep makes the policy greedy, then the
+	// policy is evaluated by a fixed number of in-place sweeps that only follow its decisions.
+	private void solvePolicyIteration(double epsilon) {
+		double difference;
+		do {
+			long startTime = System.nanoTime();
+			difference = sweep(vValues, vValues, 0, model.numStates);
+			recordSweep(System.nanoTime() - startTime, model.numStates);
+
+			if (difference > epsilon) {
+				for (int i = 0; i < EVALUATION_SWEEPS; i++) {
+					startTime = System.nanoTime();
+					evaluationSweep();
+					recordSweep(System.nanoTime() - startTime, model.numStates);
+				}
+			}
+		} while (difference > epsilon);
+	}
+
+	private void evaluationSweep() {
+		for (int state = 0; state < model.numStates; state++) {
+			int d = bestDecisions[state];
+			double transitionSum = 0;
+			for (int t = model.transitionStart[d]; t < model.transitionStart[d + 1]; t++) {
+				transitionSum += model.transitionProbability[t]*vValues[model.transitionState[t]];
+			}
+			vValues[state] = model.rewards[d] + discount*transitionSum;
+		}
+	}
+
+	// Bellman backup of the states from until to, reading oldVValues and writing vValues
+	// (both can be the same array)
+	private double sweep(double[] oldVValues, double[] vValues, int from, int to) {
+		double maxDifference = 0;
+		for (int state = from; state < to; state++) {
+			int first = model.decisionStart[state];
+			int last = model.decisionStart[state + 1];
+			for (int d = first; d < last; d++) {
+				double transitionSum = 0;
+				for (int t = model.transitionStart[d]; t < model.transitionStart[d + 1]; t++) {
+					transitionSum += model.transitionProbability[t]*oldVValues[model.transitionState[t]];
+				}
+				qValues[d] = model.rewards[d] + discount*transitionSum;
+			}
+
+			// the Q-values of a state are contiguous, so the argmax only looks at its own slice
+			int best = argmax(first, last);
+			double oldValue = oldVValues[state];
+			vValues[state] = qValues[best];
+			bestDecisions[state] = best;
+
+			double difference = Math.abs(vValues[state] - oldValue);
+			if (difference > maxDifference) {
+				maxDifference = difference;
+			}
+		}
+		return maxDifference;
+	}
+
+	// for every city, the states that have a decision leading to it
+	private int[][] cityPredecessors() {
+		int[] counts = new int[model.numCities];
+		for (int state = 0; state < model.numStates; state++) {
+			int previousCity = -1;
+			for (int d = model.decisionStart[state]; d < model.decisionStart[state + 1]; d++) {
+				// the pickup and the move to the same city are next to each other
+				if (model.decisionCity[d] != previousCity) {
+					counts[model.decisionCity[d]]++;
+					previousCity = model.decisionCity[d];
+				}
+			}
+		}
+
+		int[][] predecessors = new int[model.numCities][];
+		for (int city = 0; city < model.numCities; city++) {
+			predecessors[city] = new int[counts[city]];
+			counts[city] = 0;
+		}
+		for (int state = 0; state < model.numStates; state++) {
+			int previousCity = -1;
+			for (int d = model.decisionStart[state]; d < model.decisionStart[state + 1]; d++) {
+				int city = model.decisionCity[d];
+				if (city != previousCity) {
+					predecessors[city][counts[city]++] = state;
+					previousCity = city;
+				}
+			}
+		}
+		return predecessors;
+	}
+
+	// splits a sweep in halves until the ranges are smaller than the grain
+	private class SweepTask extends RecursiveTask<Double> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double[] oldVValues;
+		private final double[] vValues;
+		private final int from;
+		private final int to;
+		private final int grain;
+
+		private SweepTask(double[] oldVValues, double[] vValues, int from, int to, int grain) {
+			this.oldVValues = oldVValues;
+			this.vValues = vValues;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected Double compute() {
+			if (to - from <= grain) {
+				return sweep(oldVValues, vValues, from, to);
+			}
+			int middle = (from + to) >>> 1;
+			SweepTask left = new SweepTask(oldVValues, vValues, from, middle, grain);
+			SweepTask right = new SweepTask(oldVValues, vValues, middle, to, grain);
+			left.fork();
+			double rightDifference = right.compute();
+			return Math.max(left.join(), rightDifference);
+		}
+	}
+
+	// binary max-heap of states ordered by the bound on their residual
+	private static class ResidualQueue {
+
+		private final int[] heap;
+		private final int[] position;
+		private final double[] residual;
+		private int size;
+
+		private ResidualQueue(int numStates) {
+			this.heap = new int[numStates];
+			this.position = new int[numStates];
+			this.residual = new double[numStates];
+			Arrays.fill(position, -1);
+		}
+
+		private boolean isEmpty() {
+			return size == 0;
+		}
+
+		private double maxResidual() {
+			return residual[heap[0]];
+		}
+
+		private void add(int state, double value) {
+			residual[state] = value;
+			heap[size] = state;
+			position[state] = size;
+			siftUp(size++);
+		}
+
+		private void increase(int state, double amount) {
+			if (position[state] < 0) {
+				add(state, amount);
+			} else {
+				residual[state] += amount;
+				siftUp(position[state]);
+			}
+		}
+
+		private int poll() {
+			int state = heap[0];
+			position[state] = -1;
+			residual[state] = 0;
+			if (--size > 0) {
+				heap[0] = heap[size];
+				position[heap[0]] = 0;
+				siftDown(0);
+			}
+			return state;
+		}
+
+		private void siftUp(int i) {
+			int state = heap[i];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (residual[heap[parent]] >= residual[state]) {
+					break;
+				}
+				heap[i] = heap[parent];
+				position[heap[i]] = i;
+				i = parent;
+			}
+			heap[i] = state;
+			position[state] = i;
+		}
+
+		private void siftDown(int i) {
+			int state = heap[i];
+			while (2*i + 1 < size) {
+				int child = 2*i + 1;
+				if (child + 1 < size && residual[heap[child + 1]] > residual[heap[child]]) {
+					child++;
+				}
+				if (residual[heap[child]] <= residual[state]) {
+					break;
+				}
+				heap[i] = heap[child];
+				position[heap[i]] = i;
+				i = child;
+			}
+			heap[i] = state;
+			position[state] = i;
+		}
+	}
+
+	private int argmax(int first, int last) {
+		int best = first;
+		for (int d = first + 1; d < last; d++) {
+			if (qValues[d] > qValues[best]) {
+				best = d;
+			}
+		}
+		return best;
+	}
+
+	private void recordSweep(long time, int backupsInSweep) {
+		if (sweeps == sweepTimes.length) {
+			sweepTimes = Arrays.copyOf(sweepTimes, 2*sweeps);
+		}
+		sweepTimes[sweeps++] = time;
+		backups += backupsInSweep;
+	}
+
+	// the best decision of every state, packed with MarkovModel.packDecision
+	int[] policy() {
+		int[] policy = new int[model.numStates];
+		for (int state = 0; state < model.numStates; state++) {
+			int d = bestDecisions[state];
+			policy[state] = MarkovModel.packDecision(model.decisionCity[d], model.decisionPickup[d]);
+		}
+		return policy;
+	}
+
+	long totalTime() {
+		long total = 0;
+		for (int i = 0; i < sweeps; i++) {
+			total += sweepTimes[i];
+		}
+		return total;
+	}
+
+	String statistics() {
+		long maxTime = 0;
+		for (int i = 0; i < sweeps; i++) {
+			maxTime = Math.max(maxTime, sweepTimes[i]);
+		}
+		return String.format("%d sweeps (%d state backups) on %d thread(s) in %.1f ms (%.3f ms per sweep, %.3f ms for the slowest one)",
+				sweeps, backups, threads, totalTime()/1e6, totalTime()/1e6/Math.max(sweeps, 1), maxTime/1e6);
+	}
+}
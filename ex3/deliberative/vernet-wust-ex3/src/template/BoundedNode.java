@@ -0,0 +1,81 @@
+package template;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A node of SMA*: besides the search node, its f value, which of its
+ * successors are still in memory and the last f value known for each of them,
+ * so that the node stands for its forgotten successors.
+ */
+class BoundedNode extends Node implements Comparable<BoundedNode> {
+
+    public final int depth;
+    // position in the successors of the parent
+    public final int index;
+    private final int id;
+    public double f;
+    private BitSet live;
+    // by successor index, NaN until generated, infinite when no plan goes through it
+    private double[] successorF;
+
+    public BoundedNode(State state, BoundedNode parent, int action, double g, int index, int id) {
+        super(state, parent, action, g);
+        this.depth = parent == null ? 0 : parent.depth + 1;
+        this.index = index;
+        this.id = id;
+    }
+
+    public boolean isLive(int successor) {
+        return live != null && live.get(successor);
+    }
+
+    public void setLive(int successor, boolean value) {
+        if (live == null) {
+            live = new BitSet();
+        }
+        live.set(successor, value);
+    }
+
+    public double successorF(int successor) {
+        return successorF == null || successor >= successorF.length ? Double.NaN : successorF[successor];
+    }
+
+    public void setSuccessorF(int successor, double value) {
+        if (successorF == null || successor >= successorF.length) {
+            int length = successorF == null ? 0 : successorF.length;
+            successorF = Arrays.copyOf(successorF == null ? new double[0] : successorF, successor + 1);
+            Arrays.fill(successorF, length, successor + 1, Double.NaN);
+        }
+        successorF[successor] = value;
+    }
+
+    // the best f of the successors, infinite if there is none
+    public double bestSuccessorF() {
+        double best = Double.POSITIVE_INFINITY;
+        if (successorF != null) {
+            for (double value : successorF) {
+                if (value < best) {
+                    best = value;
+                }
+            }
+        }
+        return best;
+    }
+
+    public boolean isLeaf() {
+        return live == null || live.isEmpty();
+    }
+
+    // lowest f first, then the deepest, so that the last node is the shallowest of the worst
+    @Override
+    public int compareTo(BoundedNode node) {
+        if (f != node.f) {
+            return f < node.f ? -1 : 1;
+        }
+        if (depth != node.depth) {
+            return node.depth - depth;
+        }
+        return Integer.compare(id, node.id);
+    }
+}
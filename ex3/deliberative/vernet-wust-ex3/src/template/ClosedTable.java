@@ -0,0 +1,144 @@
+package template;
+
+/**
+ * The closed set of the searches: the shortest distance found so far to each
+ * expanded state.
+ *
+ * States are stored packed in a single long[] (city, carried bits, remaining
+ * bits) with their distance and hash in parallel arrays, using linear
+ * probing, so no object is kept per entry.
+ */
+final class ClosedTable {
+
+    private static final double MAX_LOAD = 0.5;
+
+    private final int words;
+    private final int stride;
+    private long[] keys;
+    private double[] values;
+    private int[] hashes;
+    private int mask;
+    private int size;
+
+    private long lookups;
+    private long probes;
+
+    // words: number of longs of each task bit array of the states
+    ClosedTable(int words) {
+        this.words = words;
+        this.stride = 1 + 2 * words;
+        allocate(1024);
+    }
+
+    // the distance stored for the state, infinity if there is none
+    double get(State state) {
+        int slot = find(state);
+        return keys[slot * stride] == 0 ? Double.POSITIVE_INFINITY : values[slot];
+    }
+
+    // stores the distance if the state is new or it is shorter, returns whether it did
+    boolean improve(State state, double distance) {
+        int slot = find(state);
+        int base = slot * stride;
+        if (keys[base] != 0) {
+            if (distance >= values[slot]) {
+                return false;
+            }
+            values[slot] = distance;
+            return true;
+        }
+        // city + 1 so that 0 marks an empty slot
+        keys[base] = state.city + 1;
+        System.arraycopy(state.carried, 0, keys, base + 1, words);
+        System.arraycopy(state.remaining, 0, keys, base + 1 + words, words);
+        values[slot] = distance;
+        hashes[slot] = state.hashCode();
+        if (++size > MAX_LOAD * values.length) {
+            resize();
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    double load() {
+        return (double) size / values.length;
+    }
+
+    double averageProbes() {
+        return lookups == 0 ? 0 : (double) probes / lookups;
+    }
+
+    long memoryBytes() {
+        return (long) keys.length * Long.BYTES + (long) values.length * (Double.BYTES + Integer.BYTES);
+    }
+
+    String statistics() {
+        return String.format("%d states, load %.2f, %.2f probes per lookup, %d KiB",
+                size, load(), averageProbes(), memoryBytes() / 1024);
+    }
+
+    private int find(State state) {
+        lookups++;
+        int hash = state.hashCode();
+        int slot = mix(hash) & mask;
+        while (true) {
+            probes++;
+            int base = slot * stride;
+            if (keys[base] == 0 || (hashes[slot] == hash && matches(base, state))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean matches(int base, State state) {
+        if (keys[base] != state.city + 1) {
+            return false;
+        }
+        for (int i = 0; i < words; i++) {
+            if (keys[base + 1 + i] != state.carried[i] || keys[base + 1 + words + i] != state.remaining[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        int[] oldHashes = hashes;
+        allocate(oldValues.length * 2);
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            int base = slot * stride;
+            if (oldKeys[base] == 0) {
+                continue;
+            }
+            int target = mix(oldHashes[slot]) & mask;
+            while (keys[target * stride] != 0) {
+                target = (target + 1) & mask;
+            }
+            System.arraycopy(oldKeys, base, keys, target * stride, stride);
+            values[target] = oldValues[slot];
+            hashes[target] = oldHashes[slot];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * stride];
+        values = new double[capacity];
+        hashes = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    // murmur3 finalizer, spreads the state hash over the low bits used as slot
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+}
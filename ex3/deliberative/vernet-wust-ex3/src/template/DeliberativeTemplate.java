@@ -1,6 +1,8 @@
 package template;
 
 /* import table */
+import logist.LogistSettings;
+import logist.config.Parsers;
 import logist.simulation.Vehicle;
 import logist.agent.Agent;
 import logist.behavior.DeliberativeBehavior;
@@ -11,6 +13,7 @@ import logist.task.TaskSet;
 import logist.topology.Topology;
 import logist.topology.Topology.City;
 
+import java.io.File;
 import java.security.Key;
 import java.util.*;
 
@@ -20,11 +23,12 @@ import java.util.*;
 @SuppressWarnings("unused")
 public class DeliberativeTemplate implements DeliberativeBehavior {
 
-    enum Algorithm {NAIVE, BFS, ASTAR}
+    enum Algorithm {NAIVE, BFS, ASTAR, IDASTAR, SMASTAR, HDASTAR, ANYTIME}
 
     /* Environment */
     Topology topology;
     TaskDistribution td;
+    TopologyCache distances;
     int numCities;
 
     /* the properties of the agent */
@@ -35,11 +39,51 @@ public class DeliberativeTemplate implements DeliberativeBehavior {
 
     /* the planning class */
     Algorithm algorithm;
+    Heuristic.Kind heuristicKind;
+    Heuristic heuristic;
+    // the tasks of the current plan, bit i of a state stands for tasks[i]
+    Task[] tasks;
+    // nodes kept in memory by SMA*, states in the IDA* transposition table
+    int nodeBudget;
+    // threads of the parallel A*
+    int threads;
+    // frontier records BFS keeps in memory per layer before spilling them to disk
+    int frontierBudget;
+    // successors go straight to the next pickup or delivery instead of to a neighbour
+    boolean macroActions;
+    // first weight of the anytime weighted A*, and the time the plan method may take
+    double anytimeWeight;
+    long timeoutPlan = 300000;
+
+    /* replanning */
+    // pickups and deliveries of the last plan, as task id << 1, plus 1 for a delivery
+    int[] previousEvents;
+    boolean cancelled;
+    // the previous plan repaired for the current tasks, the first incumbent of anytime A*
+    Node repairedPlan;
+
+    /* IDA* iteration */
+    ClosedTable transpositions;
+    double nextBound;
+    // the search gives up at the deadline, the time is checked every 1024 nodes
+    long deadline;
+    long visited;
+    boolean timedOut;
 
     @Override
     public void setup(Topology topology, TaskDistribution td, Agent agent) {
+
+        // this code is used to get the timeouts
+        try {
+            LogistSettings ls = Parsers.parseSettings("config" + File.separator + "settings_default.xml");
+            timeoutPlan = ls.get(LogistSettings.TimeoutKey.PLAN);
+        } catch (Exception exc) {
+            System.out.println("There was a problem loading the configuration file.");
+        }
+
         this.topology = topology;
         this.td = td;
+        this.distances = TopologyCache.of(topology);
         this.agent = agent;
         this.vehicle = agent.vehicles().get(0);
 
@@ -51,6 +95,15 @@ public class DeliberativeTemplate implements DeliberativeBehavior {
 
         // Throws IllegalArgumentException if algorithm is unknown
         algorithm = Algorithm.valueOf(algorithmName.toUpperCase());
+
+        String heuristicName = agent.readProperty("heuristic", String.class, "MST");
+        heuristicKind = Heuristic.Kind.valueOf(heuristicName.toUpperCase());
+
+        nodeBudget = agent.readProperty("node-budget", Integer.class, 1000000);
+        threads = agent.readProperty("threads", Integer.class, Runtime.getRuntime().availableProcessors());
+        anytimeWeight = agent.readProperty("anytime-weight", Double.class, 5.0);
+        macroActions = agent.readProperty("macro-actions", Boolean.class, false);
+        frontierBudget = agent.readProperty("frontier-budget", Integer.class, 1 << 20);
     }
 
     @Override
@@ -58,7 +111,21 @@ public class DeliberativeTemplate implements DeliberativeBehavior {
         Plan plan;
 
         TaskSet currentTasks = vehicle.getCurrentTasks();
-        State initialState = new State(vehicle.getCurrentCity(), currentTasks, tasks);
+        this.tasks = new Task[currentTasks.size() + tasks.size()];
+        int index = 0;
+        for (Task task : currentTasks) {
+            this.tasks[index++] = task;
+        }
+        for (Task task : tasks) {
+            this.tasks[index++] = task;
+        }
+        State initialState = State.initial(vehicle.getCurrentCity(), currentTasks.size(), this.tasks);
+        this.heuristic = Heuristic.create(heuristicKind, this.tasks, distances);
+
+        // after a cancellation, anytime A* starts from what is left of the previous plan
+        repairedPlan = cancelled && algorithm == Algorithm.ANYTIME ? repairPreviousPlan(initialState) : null;
+        cancelled = false;
+        previousEvents = null;
 
         // Compute the plan with the selected algorithm.
         switch (algorithm) {
@@ -69,7 +136,19 @@ public class DeliberativeTemplate implements DeliberativeBehavior {
                 plan = aStarPlan(vehicle, tasks, initialState);
                 break;
             case BFS:
-                plan = bfsPlan(vehicle, tasks, initialState);
+                plan = planGivenFinalNode(new LayeredBfs(this, initialState, frontierBudget).search());
+                break;
+            case IDASTAR:
+                plan = idaStarPlan(initialState);
+                break;
+            case SMASTAR:
+                plan = smaStarPlan(initialState);
+                break;
+            case HDASTAR:
+                plan = planGivenFinalNode(new ParallelAStar(this, threads).search(initialState));
+                break;
+            case ANYTIME:
+                plan = anytimePlan(initialState);
                 break;
             default:
                 throw new AssertionError("Should not happen.");
@@ -83,13 +162,13 @@ public class DeliberativeTemplate implements DeliberativeBehavior {
 
         for (Task task : tasks) {
             // move: current city => pickup location
-            for (City city : current.pathTo(task.pickupCity))
+            for (City city : distances.path(current, task.pickupCity))
                 plan.appendMove(city);
 
             plan.appendPickup(task);
 
             // move: pickup location => delivery location
-            for (City city : task.path())
+            for (City city : distances.path(task.pickupCity, task.deliveryCity))
                 plan.appendMove(city);
 
             plan.appendDelivery(task);
@@ -102,69 +181,293 @@ public class DeliberativeTemplate implements DeliberativeBehavior {
 
     private Plan aStarPlan(Vehicle vehicle, TaskSet tasks, State initialState) {
         long startTime = System.nanoTime();
-        Node root = new Node("0", initialState, null);
-        Tree tree = new Tree(root);
+        Node root = new Node(initialState, null, Node.ROOT, 0);
 
-        List<Node> Q = new ArrayList<>();
+        // nodes carry their distance and heuristic, so comparisons are constant time
+        PriorityQueue<Node> Q = new PriorityQueue<>(Comparator.comparingDouble(Node::aStarValue));
+        root.h = heuristic.estimate(initialState);
         Q.add(root);
-        Map<State, Double> C = new HashMap<>();
+        ClosedTable C = new ClosedTable(initialState.carried.length);
         Node finalNode = null;
 
         while (!Q.isEmpty()) {
-            Node n = Q.remove(0);
+            Node n = Q.poll();
             if (n.state.isFinal()) {
                 finalNode = n;
                 break;
-            } else if (!C.containsKey(n.state) || (n.distance() < C.get(n.state))) {
-                C.put(n.state, n.distance());
-                List<Node> S = successors(tree, n);
-                Q.addAll(S);
-                Q.sort((n1, n2) -> n1.aStarComparison(n2));
+            } else if (C.improve(n.state, n.distance())) {
+                for (Node s : successors(n)) {
+                    // lazy deletion: successors already closed with a shorter distance are never queued
+                    if (s.distance() < C.get(s.state)) {
+                        s.h = heuristic.estimate(s.state);
+                        Q.add(s);
+                    }
+                }
             }
         }
 
+        System.out.println("A* closed set: " + C.statistics());
         Plan plan = planGivenFinalNode(finalNode);
         long endTime = System.nanoTime();
         long totalTime = endTime - startTime;
         return plan;
     }
 
-    private Plan bfsPlan(Vehicle vehicle, TaskSet tasks, State initialState) {
-        long startTime = System.nanoTime();
-        Node root = new Node("0", initialState, null);
-        Tree tree = new Tree(root);
+    // iterative deepening on f, remembering the states of the current iteration in a bounded table
+    private Plan idaStarPlan(State initialState) {
+        Node root = new Node(initialState, null, Node.ROOT, 0);
+        double bound = heuristic.estimate(initialState);
+        Node finalNode = null;
+        int iterations = 0;
+        deadline = System.currentTimeMillis() + timeoutPlan * 9 / 10;
+        visited = 0;
+        timedOut = false;
+
+        while (finalNode == null && bound < Double.POSITIVE_INFINITY && !timedOut) {
+            transpositions = new ClosedTable(initialState.carried.length);
+            nextBound = Double.POSITIVE_INFINITY;
+            finalNode = depthFirst(root, bound);
+            bound = nextBound;
+            iterations++;
+        }
 
-        List<Node> finalNodes = new ArrayList<>();
-        List<Node> Q = new ArrayList<>();
-        Q.add(root);
-        Map<State, Double> C = new HashMap<>();
+        System.out.println("IDA* " + iterations + " iterations, transposition table: " + transpositions.statistics());
+        transpositions = null;
+        if (finalNode == null) {
+            System.out.println("IDA*: no plan before the deadline, falling back to the naive plan");
+            return fallbackPlan(initialState);
+        }
+        return planGivenFinalNode(finalNode);
+    }
 
-        while (!Q.isEmpty()) {
-            Node n = Q.remove(0);
-            if (n.state.isFinal()) {
-                finalNodes.add(n);
-            } else if (!C.containsKey(n.state) || (n.distance() < C.get(n.state))) {
-                C.put(n.state, n.distance());
-                List<Node> S = successors(tree, n);
-                Q.addAll(S);
+    // the final node of a plan of at most bound, null if there is none or time is up
+    private Node depthFirst(Node node, double bound) {
+        if ((++visited & 1023) == 0 && System.currentTimeMillis() >= deadline) {
+            timedOut = true;
+        }
+        if (timedOut) {
+            return null;
+        }
+        double f = node.g + heuristic.estimate(node.state);
+        if (f > bound) {
+            nextBound = Math.min(nextBound, f);
+            return null;
+        }
+        if (node.state.isFinal()) {
+            return node;
+        }
+        // already reached as short in this iteration, or the table is full and the state is not in it
+        double reached = transpositions.get(node.state);
+        if (reached <= node.g) {
+            return null;
+        }
+        if (reached < Double.POSITIVE_INFINITY || transpositions.size() < nodeBudget) {
+            transpositions.improve(node.state, node.g);
+        }
+        for (Node s : successors(node)) {
+            Node finalNode = depthFirst(s, bound);
+            if (finalNode != null) {
+                return finalNode;
             }
         }
+        return null;
+    }
 
-        Node bestNode = null;
-        double minDistance = Double.MAX_VALUE;
-        for(Node node: finalNodes){
-            double distance = node.distance();
-            if(distance < minDistance){
-                minDistance = distance;
-                bestNode = node;
+    // A* keeping at most nodeBudget nodes, forgetting the worst leaves; a node remembers the f of each of its
+    // successors and its own f is the best of them, so a forgotten subtree is regenerated only when it is the best
+    private Plan smaStarPlan(State initialState) {
+        TreeSet<BoundedNode> open = new TreeSet<>();
+        // the nodes in memory by state, a successor reached at least as well by one of them is skipped
+        Map<State, BoundedNode> inMemory = new HashMap<>();
+        BoundedNode root = new BoundedNode(initialState, null, Node.ROOT, 0, -1, 0);
+        root.f = heuristic.estimate(initialState);
+        open.add(root);
+        inMemory.put(root.state, root);
+        int forgotten = 0;
+        int nextId = 1;
+        Node finalNode = null;
+
+        while (!open.isEmpty() && root.f < Double.POSITIVE_INFINITY) {
+            BoundedNode n = open.pollFirst();
+            if (n.f == Double.POSITIVE_INFINITY) {
+                break;
+            } else if (n.state.isFinal()) {
+                finalNode = n;
+                break;
+            }
+
+            // (re)generate the successors that are not in memory and may still lead to a plan
+            List<Node> S = successors(n);
+            for (int i = 0; i < S.size(); i++) {
+                Node s = S.get(i);
+                if (n.isLive(i) || n.successorF(i) == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                BoundedNode known = inMemory.get(s.state);
+                if (known != null && known.g <= s.g && known.depth <= n.depth + 1) {
+                    n.setSuccessorF(i, Double.POSITIVE_INFINITY);
+                    continue;
+                }
+                BoundedNode child = new BoundedNode(s.state, n, s.action, s.g, i, nextId++);
+                child.f = Math.max(n.f, child.g + heuristic.estimate(child.state));
+                if (n.successorF(i) > child.f) {
+                    // regenerated, with the f it had when it was forgotten
+                    child.f = n.successorF(i);
+                }
+                if (!child.state.isFinal() && child.depth >= nodeBudget - 1) {
+                    // a plan through it would not fit in memory
+                    child.f = Double.POSITIVE_INFINITY;
+                }
+                n.setLive(i, true);
+                n.setSuccessorF(i, child.f);
+                open.add(child);
+                inMemory.put(child.state, child);
+            }
+            if (n.isLeaf()) {
+                // a dead end, the first node to forget
+                open.add(n);
+            }
+            backUp(open, n);
+
+            while (inMemory.size() > nodeBudget) {
+                BoundedNode worst = null;
+                for (Iterator<BoundedNode> it = open.descendingIterator(); it.hasNext(); ) {
+                    BoundedNode candidate = it.next();
+                    if (candidate.isLeaf() && candidate.parent != null) {
+                        worst = candidate;
+                        break;
+                    }
+                }
+                if (worst == null) {
+                    break;
+                }
+                open.remove(worst);
+                inMemory.remove(worst.state, worst);
+                forgotten++;
+
+                // the parent keeps the f of the forgotten node, it is expanded again to regenerate it
+                BoundedNode parent = (BoundedNode) worst.parent;
+                parent.setLive(worst.index, false);
+                if (worst.f < Double.POSITIVE_INFINITY || parent.isLeaf()) {
+                    open.add(parent);
+                }
             }
         }
 
-        Plan plan = planGivenFinalNode(bestNode);
+        System.out.println("SMA* " + nextId + " nodes generated, " + forgotten + " forgotten");
+        if (finalNode == null) {
+            System.out.println("SMA*: no plan fits in " + nodeBudget + " nodes, falling back to the naive plan");
+            return fallbackPlan(initialState);
+        }
+        return planGivenFinalNode(finalNode);
+    }
 
-        long endTime = System.nanoTime();
-        long totalTime = endTime - startTime;
+    // sets the f of the node to the best f of its successors, and so on up to the root while it changes
+    private void backUp(TreeSet<BoundedNode> open, BoundedNode node) {
+        while (node != null) {
+            double f = node.bestSuccessorF();
+            if (f == node.f) {
+                return;
+            }
+            boolean queued = open.remove(node);
+            node.f = f;
+            if (queued) {
+                open.add(node);
+            }
+            BoundedNode parent = (BoundedNode) node.parent;
+            if (parent != null) {
+                parent.setSuccessorF(node.index, f);
+            }
+            node = parent;
+        }
+    }
+
+    // weighted A* restarted with smaller and smaller weights, until it is exact or the deadline is near
+    private Plan anytimePlan(State initialState) {
+        long deadline = System.currentTimeMillis() + timeoutPlan * 9 / 10;
+        Node incumbent = repairedPlan;
+        double incumbentWeight = Double.NaN;
+        double weight = Math.max(1, anytimeWeight);
+        boolean optimal = false;
+
+        while (System.currentTimeMillis() < deadline) {
+            double bound = incumbent == null ? Double.POSITIVE_INFINITY : incumbent.g;
+            Node finalNode = weightedAStar(initialState, weight, bound, deadline);
+            if (finalNode != null) {
+                incumbent = finalNode;
+                incumbentWeight = weight;
+            }
+            if (weight == 1 && System.currentTimeMillis() < deadline) {
+                optimal = true;
+                break;
+            }
+            weight = weight < 1.05 ? 1 : 1 + (weight - 1) / 2;
+        }
+
+        if (incumbent == null) {
+            System.out.println("Anytime A*: no plan before the deadline, falling back to the naive plan");
+            return fallbackPlan(initialState);
+        }
+        System.out.println("Anytime A*: plan of " + incumbent.g + " km "
+                + (incumbent == repairedPlan ? "repaired from the previous plan" : "found with weight " + incumbentWeight)
+                + (optimal ? ", optimal" : ""));
+        return planGivenFinalNode(incumbent);
+    }
 
+    // A* on g + weight * h, only looking for plans shorter than bound, null if there is none or time is up
+    private Node weightedAStar(State initialState, double weight, double bound, long deadline) {
+        Node root = new Node(initialState, null, Node.ROOT, 0);
+        root.h = heuristic.estimate(initialState);
+        PriorityQueue<Node> Q = new PriorityQueue<>(Comparator.comparingDouble(node -> node.g + weight * node.h));
+        Q.add(root);
+        ClosedTable C = new ClosedTable(initialState.carried.length);
+        long expanded = 0;
+
+        while (!Q.isEmpty()) {
+            if ((++expanded & 1023) == 0 && System.currentTimeMillis() >= deadline) {
+                return null;
+            }
+            Node n = Q.poll();
+            if (n.aStarValue() >= bound) {
+                continue;
+            }
+            if (n.state.isFinal()) {
+                return n;
+            } else if (C.improve(n.state, n.distance())) {
+                for (Node s : successors(n)) {
+                    if (s.distance() < C.get(s.state)) {
+                        s.h = heuristic.estimate(s.state);
+                        Q.add(s);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // delivers the carried tasks first, then picks up and delivers the others one by one
+    private Plan fallbackPlan(State initialState) {
+        City current = distances.city(initialState.city);
+        Plan plan = new Plan(current);
+        for (int i = 0; i < tasks.length; i++) {
+            if (initialState.isCarried(i)) {
+                for (City city : distances.path(current, tasks[i].deliveryCity))
+                    plan.appendMove(city);
+                plan.appendDelivery(tasks[i]);
+                current = tasks[i].deliveryCity;
+            }
+        }
+        for (int i = 0; i < tasks.length; i++) {
+            if (initialState.isRemaining(i)) {
+                for (City city : distances.path(current, tasks[i].pickupCity))
+                    plan.appendMove(city);
+                plan.appendPickup(tasks[i]);
+                for (City city : distances.path(tasks[i].pickupCity, tasks[i].deliveryCity))
+                    plan.appendMove(city);
+                plan.appendDelivery(tasks[i]);
+                current = tasks[i].deliveryCity;
+            }
+        }
         return plan;
     }
 
@@ -179,200 +482,150 @@ public class DeliberativeTemplate implements DeliberativeBehavior {
         nodeList.add(node);
         //start with root
         Collections.reverse(nodeList);
-        Node currentNode = nodeList.get(0);
-        Plan plan = new Plan(currentNode.state.city);
+        Plan plan = new Plan(distances.city(node.state.city));
         nodeList.remove(node);
+        int[] events = new int[2 * tasks.length];
+        int numEvents = 0;
 
         for(Node nextNode : nodeList){
-
-            if(currentNode.state.city != nextNode.state.city){
-                plan.appendMove(nextNode.state.city);
+            int task = Node.task(nextNode.action);
+            if (Node.kind(nextNode.action) != Node.MOVE) {
+                // a macro action first moves along the shortest path to the city of the task
+                for (City city : distances.path(distances.city(nextNode.parent.state.city), distances.city(nextNode.state.city)))
+                    plan.appendMove(city);
             }
-            else if(!currentNode.state.remainingTasks.equals(nextNode.state.remainingTasks)){
-                for(Task task : currentNode.state.remainingTasks){
-                    if(!nextNode.state.remainingTasks.contains(task))
-                        plan.appendPickup(task);
-                }
-            }
-            else{
-                for(Task task : currentNode.state.currentTasks){
-                    if(!nextNode.state.currentTasks.contains(task))
-                        plan.appendDelivery(task);
-                }
+            switch (Node.kind(nextNode.action)) {
+                case Node.MOVE:
+                    plan.appendMove(distances.city(nextNode.state.city));
+                    break;
+                case Node.PICKUP:
+                    plan.appendPickup(tasks[task]);
+                    events[numEvents++] = tasks[task].id << 1;
+                    break;
+                case Node.DELIVER:
+                    plan.appendDelivery(tasks[task]);
+                    events[numEvents++] = tasks[task].id << 1 | 1;
+                    break;
+                default:
+                    throw new AssertionError("Should not happen.");
             }
-
-            currentNode = nextNode;
         }
 
+        previousEvents = Arrays.copyOf(events, numEvents);
         return plan;
     }
 
     @Override
     public void planCancelled(TaskSet carriedTasks) {
-        if (!carriedTasks.isEmpty()) {
-            plan(vehicle, agent.getTasks());
-        }
+        // the platform asks for a new plan right after, it will start from the previous one
+        cancelled = true;
     }
 
-    public List<Node> successors(Tree tree, Node node) {
-
-        List<Node> successors = new ArrayList<>();
-        State currentState = node.state;
-
-        List<City> deliveries = new ArrayList<>();
-        for (Task task : currentState.currentTasks) {
-            deliveries.add(task.deliveryCity);
+    // the pickups and deliveries of the previous plan that still apply, followed by the
+    // tasks it did not know about, null if there is no previous plan or it exceeds the capacity
+    private Node repairPreviousPlan(State initialState) {
+        if (previousEvents == null) {
+            return null;
         }
-
-        List<City> pickups = new ArrayList<>();
-        for (Task task : currentState.remainingTasks) {
-            pickups.add(task.pickupCity);
+        Map<Integer, Integer> indices = new HashMap<>();
+        for (int i = 0; i < tasks.length; i++) {
+            indices.put(tasks[i].id, i);
         }
 
-        //is delivery possible? if yes, no need to add other states
-        if (deliveries.contains(currentState.city) && currentState.currentTasks != null) {
-            for (Task task : currentState.currentTasks) {
-                if (task.deliveryCity.equals(currentState.city)) {
-                    TaskSet taskCurrent = currentState.currentTasks.clone();
-                    taskCurrent.remove(task);
-                    State nextState = new State(currentState.city, taskCurrent, currentState.remainingTasks);
-                    successors.add(tree.addNode(nextState, node));
-                    break;
+        Node node = new Node(initialState, null, Node.ROOT, 0);
+        for (int event : previousEvents) {
+            Integer task = indices.get(event >> 1);
+            boolean delivery = (event & 1) == 1;
+            if (task != null && (delivery ? node.state.isCarried(task) : node.state.isRemaining(task))) {
+                node = appendEvent(node, task, delivery);
+                if (node == null) {
+                    return null;
                 }
             }
         }
-
-        //is pickup possible?
-        if (pickups.contains(currentState.city)) {
-            int totalWeight = currentState.currentTasks.weightSum();
-            for (Task task : currentState.remainingTasks) {
-                if (task.pickupCity.equals(currentState.city) && (totalWeight + task.weight) <= capacity) {
-                    TaskSet taskCurrent = currentState.currentTasks.clone();
-                    taskCurrent.add(task);
-                    TaskSet taskRemaining = currentState.remainingTasks.clone();
-                    taskRemaining.remove(task);
-                    State nextState = new State(currentState.city, taskCurrent, taskRemaining);
-                    successors.add(tree.addNode(nextState, node));
-                }
+        for (int i = 0; i < tasks.length && node != null; i++) {
+            if (node.state.isRemaining(i)) {
+                node = appendEvent(node, i, false);
+            }
+            if (node != null && node.state.isCarried(i)) {
+                node = appendEvent(node, i, true);
             }
         }
-
-        //visit all neighbouring cities
-        for (City neighborCity : currentState.city.neighbors()) {
-            State nextState = new State(neighborCity, currentState.currentTasks, currentState.remainingTasks);
-            successors.add(tree.addNode(nextState, node));
-        }
-
-        return successors;
-    }
-}
-
-class Tree {
-    public int numNode;
-    public Node root;
-
-    public Tree(Node root){
-        this.root = root;
-        this.numNode = 1;
-    }
-
-    public Node addNode(State nextState, Node parent) {
-        Node node = new Node(parent.path+"-"+numNode, nextState, parent);
-        parent.children.add(node);
-        numNode++;
         return node;
     }
-}
-
-class Node {
-
-    public String path;
-    public State state;
-    public Node parent;
-    public List<Node> children;
-
-    public Node(String path, State state, Node parent) {
-        this.path = path;
-        this.state = state;
-        this.parent = parent;
-        this.children = new ArrayList<>();
-    }
 
-    public double distance(){
-        double distance = 0;
-        if(parent == null){
-            return distance;
-        }else{
-            distance += state.city.distanceTo(parent.state.city) + parent.distance();
+    private Node appendEvent(Node node, int task, boolean delivery) {
+        City target = delivery ? tasks[task].deliveryCity : tasks[task].pickupCity;
+        for (City city : distances.path(distances.city(node.state.city), target)) {
+            node = child(node, node.state.moveTo(city.id), Node.MOVE);
         }
-        return distance;
+        if (delivery) {
+            return child(node, node.state.deliver(task, tasks[task].weight), Node.deliver(task));
+        }
+        if (node.state.load + tasks[task].weight > capacity) {
+            return null;
+        }
+        return child(node, node.state.pickup(task, tasks[task].weight), Node.pickup(task));
     }
 
-    public int aStarComparison(Node node2){
-        double distance1 = distance() + state.heuristicDistanceToFinalState();
-        double distance2 = node2.distance() + node2.state.heuristicDistanceToFinalState();
-        return distance1 > distance2 ? 1 : (distance1 < distance2) ? -1 : 0;
+    Node child(Node parent, State state, int action) {
+        return new Node(state, parent, action, parent.g + distances.distance(parent.state.city, state.city));
     }
-}
 
-class State {
-    public City city;
-    public TaskSet currentTasks;
-    public TaskSet remainingTasks;
+    public List<Node> successors(Node node) {
+        if (macroActions) {
+            return macroSuccessors(node);
+        }
 
-    public State(City city, TaskSet currentTasks, TaskSet remainingTasks) {
-        this.city = city;
-        this.currentTasks = currentTasks;
-        this.remainingTasks = remainingTasks;
-    }
+        List<Node> successors = new ArrayList<>();
+        State currentState = node.state;
 
-    public boolean isFinal(){
-        return currentTasks.isEmpty() && remainingTasks.isEmpty();
-    }
+        //is delivery possible? if yes, no need to add other states
+        for (int i = 0; i < tasks.length; i++) {
+            if (currentState.isCarried(i) && tasks[i].deliveryCity.id == currentState.city) {
+                successors.add(child(node, currentState.deliver(i, tasks[i].weight), Node.deliver(i)));
+                break;
+            }
+        }
 
-    public double heuristicDistanceToFinalState(){
-        List<City> cities = new ArrayList<>();
-        for(Task task: currentTasks){
-            cities.add(task.deliveryCity);
-        }
-        for(Task task: remainingTasks){
-            cities.add(task.deliveryCity);
-        }
-        double totalDistance = 0;
-        City closestCity = this.city;
-        while(!cities.isEmpty()){
-            double minDistance = Double.MAX_VALUE;
-            City currentCity = closestCity;
-            for(City city: cities){
-                if(currentCity.distanceTo(city)< minDistance){
-                    minDistance = currentCity.distanceTo(city);
-                    closestCity = city;
-                }
+        //is pickup possible?
+        for (int i = 0; i < tasks.length; i++) {
+            if (currentState.isRemaining(i) && tasks[i].pickupCity.id == currentState.city
+                    && currentState.load + tasks[i].weight <= capacity) {
+                successors.add(child(node, currentState.pickup(i, tasks[i].weight), Node.pickup(i)));
             }
-            cities.remove(closestCity);
-            totalDistance += minDistance;
         }
 
-        return totalDistance;
+        //visit all neighbouring cities
+        for (City neighborCity : distances.city(currentState.city).neighbors()) {
+            successors.add(child(node, currentState.moveTo(neighborCity.id), Node.MOVE));
+        }
+
+        return successors;
     }
 
-    @Override
-    public boolean equals(Object obj) {
-        if (obj != null && obj instanceof State) {
-            State s = (State) obj;
-            if ((city != null && s.city != null) || (city == null && s.city == null)) {
-                return city.equals(s.city) && currentTasks.equals(s.currentTasks) && remainingTasks.equals(s.remainingTasks);
+    // one successor per task: move to its pickup or delivery city and handle it there
+    private List<Node> macroSuccessors(Node node) {
+        List<Node> successors = new ArrayList<>();
+        State currentState = node.state;
+
+        // delivering where the vehicle already is never hurts, it is the only successor then
+        for (int i = 0; i < tasks.length; i++) {
+            if (currentState.isCarried(i) && tasks[i].deliveryCity.id == currentState.city) {
+                successors.add(child(node, currentState.deliver(i, tasks[i].weight), Node.deliver(i)));
+                return successors;
             }
         }
-        return false;
-    }
 
-    @Override
-    public int hashCode() {
-        if(city != null) {
-            return Objects.hash(city.hashCode(), currentTasks.hashCode(), remainingTasks.hashCode());
-        }else{
-            return Objects.hash(currentTasks.hashCode(), remainingTasks.hashCode());
+        for (int i = 0; i < tasks.length; i++) {
+            if (currentState.isCarried(i)) {
+                State moved = currentState.moveTo(tasks[i].deliveryCity.id);
+                successors.add(child(node, moved.deliver(i, tasks[i].weight), Node.deliver(i)));
+            } else if (currentState.isRemaining(i) && currentState.load + tasks[i].weight <= capacity) {
+                State moved = currentState.moveTo(tasks[i].pickupCity.id);
+                successors.add(child(node, moved.pickup(i, tasks[i].weight), Node.pickup(i)));
+            }
         }
+        return successors;
     }
 }
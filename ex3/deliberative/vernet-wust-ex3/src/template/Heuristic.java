@@ -0,0 +1,179 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import logist.task.Task;
+import logist.topology.Topology.City;
+
+/**
+ * An estimate of the distance the vehicle still has to travel from a state
+ * to deliver all the tasks, used to order the A* open list.
+ */
+interface Heuristic {
+
+    enum Kind {NEAREST, MST}
+
+    double estimate(State state);
+
+    static Heuristic create(Kind kind, Task[] tasks, TopologyCache distances) {
+        switch (kind) {
+            case NEAREST:
+                return new NearestNeighbourHeuristic(tasks, distances);
+            case MST:
+                return new SpanningTreeHeuristic(tasks, distances);
+            default:
+                throw new AssertionError("Should not happen.");
+        }
+    }
+}
+
+/**
+ * Greedy nearest neighbour tour over the delivery cities. Usually close to
+ * the real cost but not admissible, so A* is not guaranteed to be optimal.
+ */
+class NearestNeighbourHeuristic implements Heuristic {
+
+    private final Task[] tasks;
+    private final TopologyCache distances;
+
+    NearestNeighbourHeuristic(Task[] tasks, TopologyCache distances) {
+        this.tasks = tasks;
+        this.distances = distances;
+    }
+
+    @Override
+    public double estimate(State state) {
+        List<City> cities = new ArrayList<>();
+        for (int i = 0; i < tasks.length; i++) {
+            if (state.isCarried(i))
+                cities.add(tasks[i].deliveryCity);
+        }
+        for (int i = 0; i < tasks.length; i++) {
+            if (state.isRemaining(i))
+                cities.add(tasks[i].deliveryCity);
+        }
+        double totalDistance = 0;
+        City closestCity = distances.city(state.city);
+        while (!cities.isEmpty()) {
+            double minDistance = Double.MAX_VALUE;
+            City currentCity = closestCity;
+            for (City city : cities) {
+                if (distances.distance(currentCity, city) < minDistance) {
+                    minDistance = distances.distance(currentCity, city);
+                    closestCity = city;
+                }
+            }
+            cities.remove(closestCity);
+            totalDistance += minDistance;
+        }
+        return totalDistance;
+    }
+}
+
+/**
+ * Admissible and consistent estimate, the larger of two lower bounds:
+ * - the minimum spanning tree of the cities still to visit (pickups of the
+ *   remaining tasks, deliveries of all tasks) plus the distance to the
+ *   closest of them,
+ * - the distance to complete the single farthest task on its own.
+ *
+ * The spanning tree only depends on the tasks, so it is computed once per
+ * task set and shared by all the states differing only by their city.
+ */
+class SpanningTreeHeuristic implements Heuristic {
+
+    private final Task[] tasks;
+    private final TopologyCache distances;
+    private final Map<State, Double> spanningTrees = new HashMap<>();
+
+    // scratch arrays for Prim's algorithm
+    private final int[] cities;
+    private final boolean[] pending;
+    private final double[] link;
+
+    SpanningTreeHeuristic(Task[] tasks, TopologyCache distances) {
+        this.tasks = tasks;
+        this.distances = distances;
+        this.cities = new int[distances.size()];
+        this.pending = new boolean[distances.size()];
+        this.link = new double[distances.size()];
+    }
+
+    @Override
+    public double estimate(State state) {
+        double closest = Double.POSITIVE_INFINITY;
+        double farthestTask = 0;
+        for (int i = 0; i < tasks.length; i++) {
+            if (state.isCarried(i)) {
+                double delivery = distances.distance(state.city, tasks[i].deliveryCity.id);
+                closest = Math.min(closest, delivery);
+                farthestTask = Math.max(farthestTask, delivery);
+            } else if (state.isRemaining(i)) {
+                double pickup = distances.distance(state.city, tasks[i].pickupCity.id);
+                closest = Math.min(closest, pickup);
+                farthestTask = Math.max(farthestTask, pickup + distances.distance(tasks[i].pickupCity, tasks[i].deliveryCity));
+            }
+        }
+        if (closest == Double.POSITIVE_INFINITY) {
+            return 0;
+        }
+
+        // keyed by the state moved to city 0, it shares the task bits of the state
+        State signature = state.moveTo(0);
+        Double spanningTree = spanningTrees.get(signature);
+        if (spanningTree == null) {
+            spanningTree = spanningTree(state);
+            spanningTrees.put(signature, spanningTree);
+        }
+        return Math.max(spanningTree + closest, farthestTask);
+    }
+
+    private double spanningTree(State state) {
+        int numCities = 0;
+        for (int i = 0; i < tasks.length; i++) {
+            if (state.isRemaining(i)) {
+                numCities = addCity(tasks[i].pickupCity.id, numCities);
+            }
+            if (state.isRemaining(i) || state.isCarried(i)) {
+                numCities = addCity(tasks[i].deliveryCity.id, numCities);
+            }
+        }
+
+        // Prim's algorithm on the complete graph of shortest path distances
+        double total = 0;
+        int last = cities[--numCities];
+        pending[last] = false;
+        for (int i = 0; i < numCities; i++) {
+            link[i] = distances.distance(last, cities[i]);
+        }
+        while (numCities > 0) {
+            int best = 0;
+            for (int i = 1; i < numCities; i++) {
+                if (link[i] < link[best]) {
+                    best = i;
+                }
+            }
+            total += link[best];
+            last = cities[best];
+            pending[last] = false;
+            numCities--;
+            cities[best] = cities[numCities];
+            link[best] = link[numCities];
+            for (int i = 0; i < numCities; i++) {
+                link[i] = Math.min(link[i], distances.distance(last, cities[i]));
+            }
+        }
+        return total;
+    }
+
+    private int addCity(int city, int numCities) {
+        if (!pending[city]) {
+            pending[city] = true;
+            cities[numCities++] = city;
+        }
+        return numCities;
+    }
+}
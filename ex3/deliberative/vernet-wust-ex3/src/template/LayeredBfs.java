@@ -0,0 +1,242 @@
+package template;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Breadth first search, one layer (number of actions from the start) at a
+ * time.
+ *
+ * No node object outlives its expansion: a layer is a list of packed records
+ * (id, distance, city and load, task bits), and the way back to the start is
+ * kept as one (parent, action, city) entry per generated node in primitive
+ * arrays. A layer holds at most budget records in memory, the others are
+ * spilled to a memory mapped temporary file.
+ *
+ * A state is only expanded again when it is reached by a shorter path, and
+ * nothing at least as long as the best plan found so far is generated.
+ */
+class LayeredBfs {
+
+    private final DeliberativeTemplate planner;
+    private final State initialState;
+    private final int budget;
+    private final int words;
+    // longs per record: id, distance, city and load, carried bits, remaining bits
+    private final int stride;
+
+    /* generated nodes, by id */
+    private int[] parents = new int[1024];
+    private int[] actions = new int[1024];
+    private int[] cities = new int[1024];
+    private int numGenerated;
+
+    private ClosedTable closed;
+    private double best = Double.POSITIVE_INFINITY;
+    private int bestId = -1;
+    private long spilled;
+
+    LayeredBfs(DeliberativeTemplate planner, State initialState, int budget) {
+        this.planner = planner;
+        this.initialState = initialState;
+        this.budget = Math.max(1, budget);
+        this.words = initialState.carried.length;
+        this.stride = 3 + 2 * words;
+    }
+
+    // the final node of the shortest plan, null if there is none
+    Node search() {
+        if (initialState.isFinal()) {
+            return new Node(initialState, null, Node.ROOT, 0);
+        }
+        closed = new ClosedTable(words);
+        long[] record = new long[stride];
+        Layer layer = new Layer();
+        layer.add(pack(record, register(-1, Node.ROOT, initialState.city), 0, initialState));
+
+        int depth = 0;
+        while (layer.size() > 0) {
+            Layer next = new Layer();
+            layer.forEach(r -> expand(r, next));
+            layer.close();
+            layer = next;
+            depth++;
+        }
+        layer.close();
+
+        System.out.println("BFS " + depth + " layers, " + numGenerated + " nodes generated, " + spilled
+                + " spilled, closed set: " + closed.statistics());
+        return bestId < 0 ? null : rebuild(bestId);
+    }
+
+    private void expand(long[] record, Layer next) {
+        double g = Double.longBitsToDouble(record[1]);
+        if (g >= best) {
+            return;
+        }
+        State state = unpack(record);
+        if (!closed.improve(state, g)) {
+            return;
+        }
+        int id = (int) record[0];
+        long[] child = new long[stride];
+        for (Node s : planner.successors(new Node(state, null, Node.ROOT, g))) {
+            if (s.g >= best || s.g >= closed.get(s.state)) {
+                continue;
+            }
+            int childId = register(id, s.action, s.state.city);
+            if (s.state.isFinal()) {
+                best = s.g;
+                bestId = childId;
+            } else {
+                next.add(pack(child, childId, s.g, s.state));
+            }
+        }
+    }
+
+    private int register(int parent, int action, int city) {
+        if (numGenerated == parents.length) {
+            parents = Arrays.copyOf(parents, 2 * numGenerated);
+            actions = Arrays.copyOf(actions, 2 * numGenerated);
+            cities = Arrays.copyOf(cities, 2 * numGenerated);
+        }
+        parents[numGenerated] = parent;
+        actions[numGenerated] = action;
+        cities[numGenerated] = city;
+        return numGenerated++;
+    }
+
+    private long[] pack(long[] record, int id, double g, State state) {
+        record[0] = id;
+        record[1] = Double.doubleToLongBits(g);
+        record[2] = (long) state.load << 32 | state.city;
+        System.arraycopy(state.carried, 0, record, 3, words);
+        System.arraycopy(state.remaining, 0, record, 3 + words, words);
+        return record;
+    }
+
+    private State unpack(long[] record) {
+        return new State((int) record[2], Arrays.copyOfRange(record, 3, 3 + words),
+                Arrays.copyOfRange(record, 3 + words, 3 + 2 * words), (int) (record[2] >>> 32));
+    }
+
+    // replays the actions from the start to get the search nodes of the plan
+    private Node rebuild(int id) {
+        int length = 0;
+        for (int i = id; parents[i] >= 0; i = parents[i]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int i = id; parents[i] >= 0; i = parents[i]) {
+            path[--length] = i;
+        }
+
+        Node node = new Node(initialState, null, Node.ROOT, 0);
+        for (int i : path) {
+            State moved = node.state.moveTo(cities[i]);
+            int task = Node.task(actions[i]);
+            switch (Node.kind(actions[i])) {
+                case Node.MOVE:
+                    node = planner.child(node, moved, actions[i]);
+                    break;
+                case Node.PICKUP:
+                    node = planner.child(node, moved.pickup(task, planner.tasks[task].weight), actions[i]);
+                    break;
+                case Node.DELIVER:
+                    node = planner.child(node, moved.deliver(task, planner.tasks[task].weight), actions[i]);
+                    break;
+                default:
+                    throw new AssertionError("Should not happen.");
+            }
+        }
+        return node;
+    }
+
+    interface RecordVisitor {
+        void visit(long[] record);
+    }
+
+    /**
+     * The records of one layer: up to budget of them in memory, the rest in a
+     * temporary file.
+     */
+    private class Layer {
+
+        private long[] records = new long[stride * Math.min(budget, 1024)];
+        private int size;
+        private Path file;
+        private FileChannel channel;
+        private long fileRecords;
+
+        void add(long[] record) {
+            if (size == budget) {
+                spill();
+            } else if ((size + 1) * stride > records.length) {
+                records = Arrays.copyOf(records, stride * Math.min(budget, 2 * size));
+            }
+            System.arraycopy(record, 0, records, size * stride, stride);
+            size++;
+        }
+
+        long size() {
+            return fileRecords + size;
+        }
+
+        void forEach(RecordVisitor visitor) {
+            long[] record = new long[stride];
+            try {
+                // mapped a chunk at a time, a mapping is at most 2GB
+                long chunk = Integer.MAX_VALUE / (stride * Long.BYTES);
+                for (long first = 0; first < fileRecords; first += chunk) {
+                    long count = Math.min(chunk, fileRecords - first);
+                    LongBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                            first * stride * Long.BYTES, count * stride * Long.BYTES).asLongBuffer();
+                    for (long i = 0; i < count; i++) {
+                        buffer.get(record);
+                        visitor.visit(record);
+                    }
+                }
+            } catch (IOException exc) {
+                throw new UncheckedIOException("Could not read a spilled BFS layer.", exc);
+            }
+            for (int i = 0; i < size; i++) {
+                System.arraycopy(records, i * stride, record, 0, stride);
+                visitor.visit(record);
+            }
+        }
+
+        private void spill() {
+            try {
+                if (channel == null) {
+                    file = Files.createTempFile("bfs-layer", ".bin");
+                    channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                channel.map(FileChannel.MapMode.READ_WRITE, fileRecords * stride * Long.BYTES,
+                        (long) size * stride * Long.BYTES).asLongBuffer().put(records, 0, size * stride);
+            } catch (IOException exc) {
+                throw new UncheckedIOException("Could not spill a BFS layer to " + file + ".", exc);
+            }
+            fileRecords += size;
+            spilled += size;
+            size = 0;
+        }
+
+        void close() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException exc) {
+                System.out.println("There was a problem deleting the BFS layer file " + file + ".");
+            }
+            records = null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package template;
+
+/**
+ * A search node: its state, its parent and the action leading from the
+ * parent to it. Nothing points from a node to its children, so abandoned
+ * branches can be collected during the search.
+ */
+class Node {
+
+    // the kinds of action, a pickup or delivery also holds its task index above the two low bits
+    static final int ROOT = -1;
+    static final int MOVE = 0;
+    static final int PICKUP = 1;
+    static final int DELIVER = 2;
+
+    public final State state;
+    public final Node parent;
+    public final int action;
+    // distance travelled from the root, and heuristic distance left (set by A*)
+    public final double g;
+    public double h;
+
+    public Node(State state, Node parent, int action, double g) {
+        this.state = state;
+        this.parent = parent;
+        this.action = action;
+        this.g = g;
+    }
+
+    static int pickup(int task) {
+        return task << 2 | PICKUP;
+    }
+
+    static int deliver(int task) {
+        return task << 2 | DELIVER;
+    }
+
+    static int kind(int action) {
+        return action & 3;
+    }
+
+    static int task(int action) {
+        return action >> 2;
+    }
+
+    public double distance(){
+        return g;
+    }
+
+    public double aStarValue(){
+        return g + h;
+    }
+}
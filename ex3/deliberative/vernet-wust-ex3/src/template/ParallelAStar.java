@@ -0,0 +1,155 @@
+package template;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hash distributed A* (HDA*). Every state is owned by one thread, chosen by
+ * its hash: that thread alone keeps it in its open list and closed table.
+ * Successors are sent to the inbox of their owner.
+ *
+ * Threads keep expanding until every open list and inbox is empty, pruning
+ * the nodes that cannot beat the best plan found so far, so the plan is
+ * optimal whenever the heuristic is admissible.
+ */
+class ParallelAStar {
+
+    private final DeliberativeTemplate planner;
+    private final int numThreads;
+    private Worker[] workers;
+
+    // nodes sent to a thread and not yet expanded or discarded
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicReference<Node> incumbent = new AtomicReference<>();
+
+    ParallelAStar(DeliberativeTemplate planner, int threads) {
+        this.planner = planner;
+        this.numThreads = threads;
+    }
+
+    // the final node of an optimal plan
+    Node search(State initialState) {
+        workers = new Worker[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = new Worker(initialState.carried.length);
+        }
+        send(new Node(initialState, null, Node.ROOT, 0));
+
+        Thread[] threads = new Thread[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            threads[i] = new Thread(workers[i], "hda-" + i);
+            threads[i].start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while planning.", exc);
+        }
+
+        StringBuilder expanded = new StringBuilder();
+        for (Worker worker : workers) {
+            expanded.append(expanded.length() == 0 ? "" : ", ").append(worker.expanded);
+        }
+        System.out.println("HDA* " + workers.length + " threads, expanded " + expanded);
+        return incumbent.get();
+    }
+
+    private void send(Node node) {
+        pending.incrementAndGet();
+        workers[owner(node.state)].inbox.add(node);
+    }
+
+    private int owner(State state) {
+        int hash = state.hashCode() * 0x9e3779b9;
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % workers.length;
+    }
+
+    private double incumbentDistance() {
+        Node node = incumbent.get();
+        return node == null ? Double.POSITIVE_INFINITY : node.g;
+    }
+
+    private void offerIncumbent(Node node) {
+        Node current;
+        do {
+            current = incumbent.get();
+            if (current != null && current.g <= node.g) {
+                return;
+            }
+        } while (!incumbent.compareAndSet(current, node));
+    }
+
+    private class Worker implements Runnable {
+
+        private final LinkedBlockingQueue<Node> inbox = new LinkedBlockingQueue<>();
+        private final PriorityQueue<Node> open = new PriorityQueue<>(Comparator.comparingDouble(Node::aStarValue));
+        private final ClosedTable closed;
+        // the heuristics cache their work, so each thread has its own
+        private final Heuristic heuristic = Heuristic.create(planner.heuristicKind, planner.tasks, planner.distances);
+        private long expanded;
+
+        Worker(int words) {
+            this.closed = new ClosedTable(words);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Node received;
+                while ((received = inbox.poll()) != null) {
+                    receive(received);
+                }
+
+                Node n = open.poll();
+                if (n == null) {
+                    if (pending.get() == 0) {
+                        return;
+                    }
+                    // block until a node is sent here, waking up now and then to see whether the search is over
+                    try {
+                        received = inbox.poll(1, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException exc) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    if (received != null) {
+                        receive(received);
+                    }
+                    continue;
+                }
+
+                if (n.aStarValue() >= incumbentDistance()) {
+                    // nothing left in this open list can do better
+                    pending.addAndGet(-1 - open.size());
+                    open.clear();
+                    continue;
+                }
+                if (n.state.isFinal()) {
+                    offerIncumbent(n);
+                } else if (closed.improve(n.state, n.g)) {
+                    expanded++;
+                    for (Node s : planner.successors(n)) {
+                        send(s);
+                    }
+                }
+                pending.decrementAndGet();
+            }
+        }
+
+        private void receive(Node node) {
+            if (node.g < closed.get(node.state)) {
+                node.h = heuristic.estimate(node.state);
+                open.add(node);
+            } else {
+                pending.decrementAndGet();
+            }
+        }
+    }
+}
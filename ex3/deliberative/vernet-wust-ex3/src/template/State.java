@@ -0,0 +1,103 @@
+package template;
+
+import java.util.Arrays;
+
+import logist.task.Task;
+import logist.topology.Topology.City;
+
+/**
+ * An immutable search state: the city of the vehicle and one bit per task of
+ * the plan, telling whether it is carried or still to be picked up. States
+ * that only differ by the city share their bit arrays.
+ */
+final class State {
+    public final int city;
+    public final long[] carried;
+    public final long[] remaining;
+    // total weight of the carried tasks
+    public final int load;
+    private final int hash;
+
+    State(int city, long[] carried, long[] remaining, int load) {
+        this.city = city;
+        this.carried = carried;
+        this.remaining = remaining;
+        this.load = load;
+        this.hash = hash(city, carried, remaining);
+    }
+
+    private static int hash(int city, long[] carried, long[] remaining) {
+        long hash = city;
+        for (int i = 0; i < carried.length; i++) {
+            hash = hash * 0x9e3779b97f4a7c15L + carried[i];
+            hash = hash * 0x9e3779b97f4a7c15L + remaining[i];
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    // the first numCarried tasks are carried, the others are still to be picked up
+    public static State initial(City city, int numCarried, Task[] tasks) {
+        long[] carried = new long[(tasks.length + 63) >>> 6];
+        long[] remaining = new long[carried.length];
+        int load = 0;
+        for (int i = 0; i < tasks.length; i++) {
+            if (i < numCarried) {
+                carried[i >>> 6] |= 1L << i;
+                load += tasks[i].weight;
+            } else {
+                remaining[i >>> 6] |= 1L << i;
+            }
+        }
+        return new State(city.id, carried, remaining, load);
+    }
+
+    public boolean isCarried(int task) {
+        return (carried[task >>> 6] & (1L << task)) != 0;
+    }
+
+    public boolean isRemaining(int task) {
+        return (remaining[task >>> 6] & (1L << task)) != 0;
+    }
+
+    public State moveTo(int city) {
+        return new State(city, carried, remaining, load);
+    }
+
+    public State pickup(int task, int weight) {
+        long[] carried = this.carried.clone();
+        long[] remaining = this.remaining.clone();
+        carried[task >>> 6] |= 1L << task;
+        remaining[task >>> 6] &= ~(1L << task);
+        return new State(city, carried, remaining, load + weight);
+    }
+
+    public State deliver(int task, int weight) {
+        long[] carried = this.carried.clone();
+        carried[task >>> 6] &= ~(1L << task);
+        return new State(city, carried, remaining, load - weight);
+    }
+
+    public boolean isFinal(){
+        for (int i = 0; i < carried.length; i++) {
+            if (carried[i] != 0 || remaining[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof State) {
+            State s = (State) obj;
+            return city == s.city && hash == s.hash
+                    && Arrays.equals(carried, s.carried) && Arrays.equals(remaining, s.remaining);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -3,6 +3,7 @@ package template;
 //the list of imports
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -27,10 +28,20 @@ public class CentralizedTemplate implements CentralizedBehavior {
 
     private Topology topology;
     private TaskDistribution distribution;
+    private TopologyCache distances;
     private Agent agent;
     private long timeout_setup;
     private long timeout_plan;
     private Random rand = new Random();
+    // number of tries run at the same time, 1 runs them one after the other
+    private int threads;
+    private Metaheuristic.Kind metaheuristicKind;
+    // simulated annealing: temperature at the start and at the end of a try, and how it goes from one to the other
+    private double initialTemperature;
+    private double finalTemperature;
+    private Annealing.Cooling cooling;
+    // tabu search: number of iterations during which a move cannot be undone
+    private int tabuTenure;
 
     @Override
     public void setup(Topology topology, TaskDistribution distribution,
@@ -51,7 +62,17 @@ public class CentralizedTemplate implements CentralizedBehavior {
 
         this.topology = topology;
         this.distribution = distribution;
+        this.distances = TopologyCache.of(topology);
         this.agent = agent;
+        this.threads = agent.readProperty("sls-threads", Integer.class, 1);
+
+        String metaheuristicName = agent.readProperty("metaheuristic", String.class, "GREEDY");
+        this.metaheuristicKind = Metaheuristic.Kind.valueOf(metaheuristicName.toUpperCase());
+        this.initialTemperature = agent.readProperty("initial-temperature", Double.class, 500.0);
+        this.finalTemperature = agent.readProperty("final-temperature", Double.class, 1.0);
+        String coolingName = agent.readProperty("cooling", String.class, "EXPONENTIAL");
+        this.cooling = Annealing.Cooling.valueOf(coolingName.toUpperCase());
+        this.tabuTenure = agent.readProperty("tabu-tenure", Integer.class, 20);
     }
 
     @Override
@@ -82,23 +103,23 @@ public class CentralizedTemplate implements CentralizedBehavior {
 
     private List<Plan> plansFromVariableAssignment(Assignment A){
 
-        Map<Vehicle, Plan> vehiclePlans = new HashMap<>();
+        List<Plan> plans = new ArrayList<>();
 
-        for(Map.Entry<Vehicle, List<Task>> entry: A.X.nextAction.entrySet()){
-            Vehicle vehicle = entry.getKey();
+        for(int v = 0; v < A.D.vehicles.size(); v++){
+            Vehicle vehicle = A.D.vehicles.get(v);
             City currentCity = vehicle.getCurrentCity();
             Plan plan = new Plan(currentCity);
             List<Task> carriedTasks = new ArrayList<>();
-            for(Task task: entry.getValue()){
+            for(Task task: A.X.routes[v]){
                 if(!carriedTasks.contains(task)) {
-                    for (City city : currentCity.pathTo(task.pickupCity)) {
+                    for (City city : distances.path(currentCity, task.pickupCity)) {
                         plan.appendMove(city);
                     }
                     currentCity = task.pickupCity;
                     plan.appendPickup(task);
                     carriedTasks.add(task);
                 }else{
-                    for (City city : currentCity.pathTo(task.deliveryCity)) {
+                    for (City city : distances.path(currentCity, task.deliveryCity)) {
                         plan.appendMove(city);
                     }
                     currentCity = task.deliveryCity;
@@ -106,88 +127,149 @@ public class CentralizedTemplate implements CentralizedBehavior {
                     carriedTasks.remove(task);
                 }
             }
-            vehiclePlans.put(vehicle, plan);
-        }
-
-        List<Plan> plans = new ArrayList<>();
-        for(Vehicle vehicle: A.D.vehicles){
-            plans.add(vehiclePlans.get(vehicle));
+            plans.add(plan);
         }
 
         return plans;
     }
 
     private Assignment stochasticLocalSearchTimeBased(Variable X, Domain D, Constraint C, double time){
-        Assignment A = selectInitialSolution(X, D, C);
-        Assignment localBestA = new Assignment(A);
-        Assignment globalBestA = new Assignment(A);
-        List<Assignment> oldAssignments = new LinkedList<>();
-
-        double globalBestCost = Double.MAX_VALUE;
         int numberOfTries = 3;
         int timeMargin = 3000; //ms
 
+        if(threads > 1){
+            return parallelLocalSearch(D, time - timeMargin);
+        }
+
+        Assignment globalBestA = null;
+        double globalBestCost = Double.MAX_VALUE;
+
         for(int i=1; i<=numberOfTries; i++) {
-            long time_start = System.currentTimeMillis();
-            double localBestCost = Double.MAX_VALUE;
-            int maxIterationsOnAssignment = 50000;
-            int maxBacktrackIterations = 20;
-            int nbBacktracks = 0;
-            int countCurrentAssignmentIterations = 0;
-
-            while (System.currentTimeMillis() - time_start < time/numberOfTries - timeMargin/numberOfTries) {
-                Assignment A_old = new Assignment(A);
-                Set<Assignment> N = chooseNeighbors(A_old, D, 0.4);
-                A = localChoice(A_old, N);
-                double A_cost = A.cost();
-
-                if (A_cost < localBestCost) {
-                    localBestA = A;
-                    localBestCost = A_cost;
-                    nbBacktracks = 0;
-                    oldAssignments.add(A);
-
-                    System.out.println("Best cost: " + A_cost + " from "+ oldAssignments.size()+" Solutions in try: "+i);
-                }
+            Assignment A = selectInitialSolution(X, D, C);
+            Assignment localBestA = localSearch(i, A, D, rand, time/numberOfTries - timeMargin/numberOfTries, null);
+            double localBestCost = localBestA.cost();
 
-                countCurrentAssignmentIterations++;
+            if(globalBestA == null || localBestCost < globalBestCost){
+                globalBestCost = localBestCost;
+                globalBestA = localBestA;
+            }
+        }
+        System.out.println("Global Best Cost: " + globalBestCost);
 
-                if (countCurrentAssignmentIterations > maxIterationsOnAssignment) {
-                    nbBacktracks++;
-                    if (nbBacktracks > maxBacktrackIterations) {
-                        maxIterationsOnAssignment += 20000;
-                        maxBacktrackIterations = (int) Math.ceil(maxBacktrackIterations / 2);
-                        nbBacktracks = 0;
-                    } else {
-                        int index = oldAssignments.size() - nbBacktracks;
-                        if (index <= 0) {
-                            A = oldAssignments.get(0);
-                        } else {
-                            A = oldAssignments.get(index);
-                        }
+        return globalBestA;
+    }
 
-                        countCurrentAssignmentIterations = 0;
-                        System.out.println("Backtracked: " + nbBacktracks);
-                    }
-                }
+    //the tries run at the same time, one per thread with its own random generator, sharing their best assignment
+    private Assignment parallelLocalSearch(Domain D, double time){
+        AtomicReference<Assignment> globalBestA = new AtomicReference<>();
+        Assignment initialA = null;
+
+        Thread[] searches = new Thread[threads];
+        for(int i = 0; i < threads; i++){
+            int search = i + 1;
+            // the constraint keeps state while checking, so each thread has its own
+            Assignment A = selectInitialSolution(new Variable(D.vehicles), D, new Constraint());
+            Random random = new Random(rand.nextLong());
+            searches[i] = new Thread(() -> localSearch(search, A, D, random, time, globalBestA), "sls-" + search);
+            searches[i].start();
+            initialA = A;
+        }
+        try {
+            for(Thread search: searches){
+                search.join();
             }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while planning.", exc);
+        }
 
-            System.out.println("Best cost in try "+i+" found to be: " + localBestCost);
+        Assignment bestA = globalBestA.get() == null ? initialA : globalBestA.get();
+        System.out.println("Global Best Cost: " + bestA.cost() + " from " + threads + " threads");
 
-            oldAssignments.clear();
-            A = selectInitialSolution(X, D, C);
+        return bestA;
+    }
 
-            if(localBestCost < globalBestCost){
-                globalBestCost = localBestCost;
-                globalBestA = localBestA;
+    //one try of the search from A, returns the best assignment found in time ms;
+    //with shared, the best assignment of all tries is kept there and a stuck try restarts from it
+    private Assignment localSearch(int i, Assignment A, Domain D, Random rand, double time, AtomicReference<Assignment> shared){
+        long time_start = System.currentTimeMillis();
+        // tabu list and temperature belong to one try
+        Metaheuristic metaheuristic = createMetaheuristic();
+        Assignment localBestA = new Assignment(A);
+
+        double localBestCost = Double.MAX_VALUE;
+        int nbSolutions = 0;
+        int maxIterationsOnAssignment = 50000;
+        int countCurrentAssignmentIterations = 0;
+        long iterations = 0;
+
+        long elapsed;
+        while ((elapsed = System.currentTimeMillis() - time_start) < time) {
+            Assignment A_old = new Assignment(A);
+            Set<Assignment> N = chooseNeighbors(A_old, D, metaheuristic.keepProbability(), rand);
+            for(int k = 1; k < metaheuristic.neighbourhoods(); k++){
+                N.addAll(chooseNeighbors(A_old, D, 0, rand));
+            }
+            A = metaheuristic.next(A_old, N, rand, elapsed / time);
+            double A_cost = A.cost();
+
+            if (A_cost < localBestCost) {
+                localBestA = A;
+                localBestCost = A_cost;
+                nbSolutions++;
+                if (shared != null) {
+                    offerBest(shared, A);
+                }
+
+                System.out.println("Best cost: " + A_cost + " from "+ nbSolutions+" Solutions in try: "+i);
+            }
+
+            countCurrentAssignmentIterations++;
+            iterations++;
+
+            if (countCurrentAssignmentIterations > maxIterationsOnAssignment) {
+                countCurrentAssignmentIterations = 0;
+                Assignment sharedBestA = shared == null ? null : shared.get();
+                if (sharedBestA != null && sharedBestA.cost() < localBestCost) {
+                    A = new Assignment(sharedBestA, A.C);
+                    System.out.println("Try " + i + " restarted from the shared best cost: " + sharedBestA.cost());
+                } else {
+                    A = metaheuristic.stuck(A);
+                }
             }
         }
-        System.out.println("Global Best Cost: " + globalBestCost);
 
-        return globalBestA;
+        System.out.println("Best cost in try "+i+" found to be: " + localBestCost + " after " + iterations + " iterations");
+
+        return localBestA;
+    }
+
+    //an assignment is never modified once its cost is known, so it can be read by the other threads
+    private void offerBest(AtomicReference<Assignment> best, Assignment A){
+        double cost = A.cost();
+        Assignment current;
+        do {
+            current = best.get();
+            if (current != null && current.cost() <= cost) {
+                return;
+            }
+        } while (!best.compareAndSet(current, A));
+    }
+
+    private Metaheuristic createMetaheuristic(){
+        switch (metaheuristicKind) {
+            case GREEDY:
+                return new Greedy();
+            case ANNEALING:
+                return new Annealing(initialTemperature, finalTemperature, cooling);
+            case TABU:
+                return new Tabu(tabuTenure);
+            default:
+                throw new AssertionError("Should not happen.");
+        }
     }
 
-    private Assignment localChoice(Assignment A_old, Set<Assignment> N){
+    private Assignment localChoice(Assignment A_old, Set<Assignment> N, Random rand){
 
         double bestCost = A_old.cost();
         Assignment bestAssignment = A_old;
@@ -206,7 +288,7 @@ public class CentralizedTemplate implements CentralizedBehavior {
         return bestAssignment;
     }
 
-    private Set<Assignment> chooseNeighbors(Assignment A_old, Domain D, double probability){
+    private Set<Assignment> chooseNeighbors(Assignment A_old, Domain D, double probability, Random rand){
 
         Set<Assignment> N = new HashSet<>();
 
@@ -216,20 +298,20 @@ public class CentralizedTemplate implements CentralizedBehavior {
         }
 
 
-        Vehicle randomVehicle = D.vehicles.get(rand.nextInt(D.vehicles.size()));
-        for(Vehicle vehicle: D.vehicles){
-            if(!vehicle.equals(randomVehicle)){
-                Assignment A2 = transferringTask(A_old, randomVehicle, vehicle);
+        int randomVehicle = rand.nextInt(D.vehicles.size());
+        for(int vehicle = 0; vehicle < D.vehicles.size(); vehicle++){
+            if(vehicle != randomVehicle){
+                Assignment A2 = transferringTask(A_old, randomVehicle, vehicle, rand);
                 if(A2.isValid() && !A2.equals(A_old)){
                     N.add(A2);
                 }
             }
         }
 
-        List<Task> randomVehicleTasks = A_old.X.nextAction.get(randomVehicle);
-        if(!randomVehicleTasks.isEmpty()) {
-            int i = rand.nextInt(randomVehicleTasks.size());
-            int j = rand.nextInt(randomVehicleTasks.size());
+        Task[] randomVehicleTasks = A_old.X.routes[randomVehicle];
+        if(randomVehicleTasks.length > 0) {
+            int i = rand.nextInt(randomVehicleTasks.length);
+            int j = rand.nextInt(randomVehicleTasks.length);
             Assignment A3 = changingTaskOrder(A_old, randomVehicle, i, j);
             if (A3.isValid() && !A3.equals(A_old)) {
                 N.add(A3);
@@ -239,13 +321,16 @@ public class CentralizedTemplate implements CentralizedBehavior {
         return N;
     }
 
-    public Assignment changingTaskOrder(Assignment A_old, Vehicle randomVehicle, int i, int j){
+    public Assignment changingTaskOrder(Assignment A_old, int randomVehicle, int i, int j){
 
-        Assignment A = new Assignment(A_old);
-        List<Task> randomVehicleTasks = new ArrayList<>(A_old.X.nextAction.get(randomVehicle));
-        if(!randomVehicleTasks.get(i).equals(randomVehicleTasks.get(j))) {
-            Collections.swap(randomVehicleTasks, i, j);
-            A.X.nextAction.put(randomVehicle, randomVehicleTasks);
+        Task[] randomVehicleTasks = A_old.X.routes[randomVehicle];
+        if(!randomVehicleTasks[i].equals(randomVehicleTasks[j])) {
+            Task[] swapped = randomVehicleTasks.clone();
+            swapped[i] = randomVehicleTasks[j];
+            swapped[j] = randomVehicleTasks[i];
+            Assignment A = new Assignment(A_old);
+            A.setRoute(randomVehicle, swapped);
+            A.move = A.reverseMove = Tabu.swapKey(randomVehicleTasks[i], randomVehicleTasks[j]);
             return A;
         }
 
@@ -253,16 +338,22 @@ public class CentralizedTemplate implements CentralizedBehavior {
     }
 
     //transfer a random task from a random vehicle to another vehicle as its first task
-    private Assignment transferringTask(Assignment A_old, Vehicle randomVehicle, Vehicle vehicle) {
+    private Assignment transferringTask(Assignment A_old, int randomVehicle, int vehicle, Random rand) {
 
-        Assignment A = new Assignment(A_old);
-        List<Task> randomVehicleTasks = new ArrayList<>(A_old.X.nextAction.get(randomVehicle));
-        List<Task> vehicleTasks = new ArrayList<>(A_old.X.nextAction.get(vehicle));
+        Task[] randomVehicleTasks = A_old.X.routes[randomVehicle];
 
         //a vehicle without assigned tasks cannot transfer tasks, therefore we return the old assignment in order to discard it later on
-        if(!randomVehicleTasks.isEmpty()) {
-            Task randomTask = randomVehicleTasks.get(rand.nextInt(randomVehicleTasks.size()));
-            randomVehicleTasks.removeAll(Collections.singleton(randomTask));
+        if(randomVehicleTasks.length > 0) {
+            Task randomTask = randomVehicleTasks[rand.nextInt(randomVehicleTasks.length)];
+            Task[] remainingTasks = new Task[randomVehicleTasks.length - 2];
+            int k = 0;
+            for(Task task: randomVehicleTasks){
+                if(!task.equals(randomTask)){
+                    remainingTasks[k++] = task;
+                }
+            }
+
+            List<Task> vehicleTasks = new ArrayList<>(Arrays.asList(A_old.X.routes[vehicle]));
             if(vehicleTasks.isEmpty()){
                 vehicleTasks.add(0, randomTask);
                 vehicleTasks.add(0, randomTask);
@@ -271,8 +362,11 @@ public class CentralizedTemplate implements CentralizedBehavior {
                 vehicleTasks.add(rand.nextInt(vehicleTasks.size()), randomTask);
             }
 
-            A.X.nextAction.put(randomVehicle, randomVehicleTasks);
-            A.X.nextAction.put(vehicle, vehicleTasks);
+            Assignment A = new Assignment(A_old);
+            A.setValidRoute(randomVehicle, remainingTasks);
+            A.setRoute(vehicle, vehicleTasks.toArray(new Task[0]));
+            A.move = Tabu.transferKey(randomTask, vehicle);
+            A.reverseMove = Tabu.transferKey(randomTask, randomVehicle);
             return A;
         }
 
@@ -283,6 +377,7 @@ public class CentralizedTemplate implements CentralizedBehavior {
 
         //Closest Tasks
         List<Task> tasks = new ArrayList<>(D.tasks);
+        List<List<Task>> initialRoutes = new ArrayList<>();
         for(Vehicle vehicle: D.vehicles){
             List<Task> initialTasks = new ArrayList<>();
             List<Task> carriedTasks = new ArrayList<>();
@@ -310,7 +405,7 @@ public class CentralizedTemplate implements CentralizedBehavior {
             for(Task task: carriedTasks){
                 initialTasks.add(task);
             }
-            X.nextAction.put(vehicle, initialTasks);
+            initialRoutes.add(initialTasks);
         }
 
         int nbVehicles = D.vehicles.size();
@@ -319,11 +414,15 @@ public class CentralizedTemplate implements CentralizedBehavior {
         for(Task task: tasks){
             if (vehicleIndex == nbVehicles)
                 vehicleIndex = 0;
-            X.nextAction.get(D.vehicles.get(vehicleIndex)).add(task);
-            X.nextAction.get(D.vehicles.get(vehicleIndex)).add(task);
+            initialRoutes.get(vehicleIndex).add(task);
+            initialRoutes.get(vehicleIndex).add(task);
             vehicleIndex++;
         }
 
+        for(int v = 0; v < nbVehicles; v++){
+            X.routes[v] = initialRoutes.get(v).toArray(new Task[0]);
+        }
+
         return new Assignment(X, D, C);
     }
 
@@ -332,58 +431,113 @@ public class CentralizedTemplate implements CentralizedBehavior {
         private Variable X;
         private Domain D;
         private Constraint C;
+        // cost of the route of each vehicle, NaN until computed, and again when the route changes
+        private double[] vehicleCosts;
+        // the routes changed since the copy that still have to be checked, null if none
+        private List<Integer> uncheckedRoutes;
+        // the move that led to this assignment from the previous one, and the move undoing it
+        private long move = Tabu.NO_MOVE;
+        private long reverseMove = Tabu.NO_MOVE;
 
         private Assignment(Variable X, Domain D, Constraint C){
             this.X = X;
             this.D = D;
             this.C = C;
+            this.vehicleCosts = new double[X.routes.length];
+            Arrays.fill(vehicleCosts, Double.NaN);
+            // the routes were built directly, so all of them are checked once
+            this.uncheckedRoutes = new ArrayList<>(X.routes.length);
+            for(int vehicle = 0; vehicle < X.routes.length; vehicle++){
+                uncheckedRoutes.add(vehicle);
+            }
         }
 
+        // shares the routes of A, which are never modified in place
         private Assignment(Assignment A){
             this.X = new Variable(A.X);
             this.D = A.D;
             this.C = A.C;
+            this.vehicleCosts = A.vehicleCosts.clone();
+            if(A.uncheckedRoutes != null){
+                this.uncheckedRoutes = new ArrayList<>(A.uncheckedRoutes);
+            }
         }
 
-        private boolean isValid(){
+        // a copy checked with the constraint C of another search thread
+        private Assignment(Assignment A, Constraint C){
+            this(A);
+            this.C = C;
+        }
 
-            boolean b1 = C.c1(X, D);
-            boolean b2 = C.c2(X, D);
-            boolean b3 = C.c3(X, D);
+        private void setRoute(int vehicle, Task[] route){
+            setValidRoute(vehicle, route);
+            if(uncheckedRoutes == null){
+                uncheckedRoutes = new ArrayList<>(2);
+            }
+            uncheckedRoutes.add(vehicle);
+        }
 
-            return b1 && b2 && b3;
+        // for a route that cannot break the constraints, e.g. a valid one with a task removed
+        private void setValidRoute(int vehicle, Task[] route){
+            X.routes[vehicle] = route;
+            vehicleCosts[vehicle] = Double.NaN;
+        }
+
+        // the moves keep every task in exactly one route, only the changed routes are checked
+        private boolean isValid(){
+            if(uncheckedRoutes != null){
+                for(int vehicle: uncheckedRoutes){
+                    if(!C.isValidRoute(X.routes[vehicle], D.vehicles.get(vehicle).capacity())){
+                        return false;
+                    }
+                }
+                uncheckedRoutes = null;
+            }
+            return true;
         }
 
         private double cost(){
             double cost = 0;
 
-            for(Map.Entry<Vehicle, List<Task>> entry: X.nextAction.entrySet()){
-                Vehicle vehicle = entry.getKey();
-                List<Task> vehicleTasks = entry.getValue();
-                if(!vehicleTasks.isEmpty()) {
-                    double vehicleCost = vehicle.homeCity().distanceTo(vehicleTasks.get(0).pickupCity);
-                    City currentCity = vehicleTasks.get(0).pickupCity;
-
-                    List<Task> tasksToDeliver = new ArrayList<>();
-                    tasksToDeliver.add(vehicleTasks.get(0));
-
-                    for (int i = 1; i < vehicleTasks.size(); i++) {
-                        Task task = vehicleTasks.get(i);
-                        if (tasksToDeliver.contains(task)) {
-                            vehicleCost += currentCity.distanceTo(task.deliveryCity);
-                            currentCity = task.deliveryCity;
-                            tasksToDeliver.remove(task);
-                        } else {
-                            vehicleCost += currentCity.distanceTo(task.pickupCity);
-                            currentCity = task.pickupCity;
-                            tasksToDeliver.add(task);
-                        }
+            for(int vehicle = 0; vehicle < X.routes.length; vehicle++){
+                cost += vehicleCost(vehicle);
+            }
+
+            return Math.round(cost);
+        }
+
+        private double vehicleCost(int v){
+            if(!Double.isNaN(vehicleCosts[v])){
+                return vehicleCosts[v];
+            }
+
+            double cost = 0;
+            Vehicle vehicle = D.vehicles.get(v);
+            Task[] vehicleTasks = X.routes[v];
+            if(vehicleTasks.length > 0) {
+                double vehicleCost = distances.distance(vehicle.homeCity(), vehicleTasks[0].pickupCity);
+                City currentCity = vehicleTasks[0].pickupCity;
+
+                List<Task> tasksToDeliver = new ArrayList<>();
+                tasksToDeliver.add(vehicleTasks[0]);
+
+                for (int i = 1; i < vehicleTasks.length; i++) {
+                    Task task = vehicleTasks[i];
+                    if (tasksToDeliver.contains(task)) {
+                        vehicleCost += distances.distance(currentCity, task.deliveryCity);
+                        currentCity = task.deliveryCity;
+                        tasksToDeliver.remove(task);
+                    } else {
+                        vehicleCost += distances.distance(currentCity, task.pickupCity);
+                        currentCity = task.pickupCity;
+                        tasksToDeliver.add(task);
                     }
-                    cost += vehicleCost*vehicle.costPerKm();
                 }
+                cost = vehicleCost*vehicle.costPerKm();
             }
 
-            return Math.round(cost);
+            vehicleCosts[v] = cost;
+            return cost;
         }
 
         @Override
@@ -395,19 +549,18 @@ public class CentralizedTemplate implements CentralizedBehavior {
 
     private static class Variable {
 
-        private Map<Vehicle, List<Task>> nextAction;
+        // the pickups and deliveries of each vehicle in order, indexed like Domain.vehicles;
+        // a route is never modified, a move replaces the routes it changes
+        private Task[][] routes;
 
         private Variable(List<Vehicle> vehicles) {
 
-            this.nextAction = new HashMap<>(vehicles.size());
-
-            for(Vehicle vehicle: vehicles){
-                nextAction.put(vehicle, new ArrayList<>());
-            }
+            this.routes = new Task[vehicles.size()][];
+            Arrays.fill(routes, new Task[0]);
         }
 
         private Variable(Variable X){
-            this.nextAction = new HashMap<>(X.nextAction);
+            this.routes = X.routes.clone();
         }
     }
 
@@ -424,64 +577,219 @@ public class CentralizedTemplate implements CentralizedBehavior {
 
     private static class Constraint {
 
-        //same tasks are not assigned to different vehicles
-        private boolean c1(Variable X, Domain D){
+        // by task id: 2*check once picked up in the route being checked, 2*check+1 once delivered
+        private int[] marks = new int[0];
+        private int check;
 
-            Set<Task> tasks = new HashSet<>(D.tasks);
+        //each task of the route is picked up then delivered exactly once, and the load never exceeds the capacity
+        private boolean isValidRoute(Task[] route, int capacity){
 
-            for(Map.Entry<Vehicle, List<Task>> entry: X.nextAction.entrySet()){
-                Set<Task> vehicleTasks = new HashSet<>(entry.getValue());
-                for(Task vehicleTask: vehicleTasks) {
-                    if(!tasks.remove(vehicleTask)){
+            if(++check >= Integer.MAX_VALUE / 2){
+                Arrays.fill(marks, 0);
+                check = 1;
+            }
+            int pickedUp = 2*check;
+            int load = 0;
+            int carried = 0;
+
+            for(Task task: route){
+                if(task.id >= marks.length){
+                    marks = Arrays.copyOf(marks, Math.max(2*marks.length, task.id + 1));
+                }
+                int mark = marks[task.id];
+                if(mark < pickedUp){
+                    marks[task.id] = pickedUp;
+                    load += task.weight;
+                    carried++;
+                    if(load > capacity){
                         return false;
                     }
+                } else if(mark == pickedUp){
+                    marks[task.id] = pickedUp + 1;
+                    load -= task.weight;
+                    carried--;
+                } else {
+                    return false;
                 }
             }
-            return tasks.isEmpty();
+            return carried == 0;
         }
+    }
 
-        //each task is picked up and delivered only once
-        private boolean c2(Variable X, Domain D){
+    /**
+     * Chooses, at each iteration of the local search, the assignment to
+     * continue from among the neighbours of the current one.
+     */
+    private interface Metaheuristic {
 
-            for(Map.Entry<Vehicle, List<Task>> entry: X.nextAction.entrySet()) {
-                List<Task> vehicleTasks = new ArrayList<>(entry.getValue());
-                while(!vehicleTasks.isEmpty()){
-                    int listSize = vehicleTasks.size();
-                    Task vehicleTask = vehicleTasks.remove(0);
-                    vehicleTasks.removeAll(Collections.singleton(vehicleTask));
-                    if(listSize - vehicleTasks.size() != 2){
-                        return false;
-                    }
-                }
+        enum Kind {GREEDY, ANNEALING, TABU}
+
+        // progress: fraction of the time of the try already spent
+        Assignment next(Assignment A_old, Set<Assignment> N, Random rand, double progress);
+
+        // probability to keep the current assignment without looking at its neighbours
+        default double keepProbability(){
+            return 0;
+        }
+
+        // number of random neighbourhoods of the current assignment looked at in each iteration
+        default int neighbourhoods(){
+            return 1;
+        }
+
+        // called when the try has been on A for a while, the assignment to continue from
+        default Assignment stuck(Assignment A){
+            return A;
+        }
+    }
+
+    /**
+     * The cheapest neighbour if it is not worse than the current assignment.
+     * When stuck, backtracks to an earlier best assignment of the try, one
+     * further back each time until a new best one is found.
+     */
+    private class Greedy implements Metaheuristic {
+
+        private final List<Assignment> oldAssignments = new ArrayList<>();
+        private double bestCost = Double.MAX_VALUE;
+        private int maxBacktrackIterations = 20;
+        private int nbBacktracks = 0;
+
+        @Override
+        public Assignment next(Assignment A_old, Set<Assignment> N, Random rand, double progress){
+            Assignment A = localChoice(A_old, N, rand);
+            if(A.cost() < bestCost){
+                bestCost = A.cost();
+                nbBacktracks = 0;
+                oldAssignments.add(A);
             }
-            return true;
+            return A;
         }
 
-        //load does not exceed capacity
-        private boolean c3(Variable X, Domain D){
+        @Override
+        public Assignment stuck(Assignment A){
+            nbBacktracks++;
+            if(nbBacktracks > maxBacktrackIterations){
+                maxBacktrackIterations = (int) Math.ceil(maxBacktrackIterations / 2);
+                nbBacktracks = 0;
+                return A;
+            }
 
-            for(Map.Entry<Vehicle, List<Task>> entry: X.nextAction.entrySet()) {
+            int index = oldAssignments.size() - nbBacktracks;
+            System.out.println("Backtracked: " + nbBacktracks);
+            return oldAssignments.get(Math.max(index, 0));
+        }
 
-                List<Task> vehicleTasks = entry.getValue();
-                List<Task> carriedTasks = new ArrayList<>();
+        @Override
+        public double keepProbability(){
+            return 0.4;
+        }
+    }
 
-                double load = 0;
-                int capacity = entry.getKey().capacity();
+    /**
+     * Simulated annealing: a random neighbour, accepted if it is not worse
+     * or with probability exp(-increase / temperature). The temperature goes
+     * down from the initial to the final one over the time of the try.
+     */
+    private static class Annealing implements Metaheuristic {
 
-                for(Task task: vehicleTasks){
-                    if(carriedTasks.contains(task)){
-                        carriedTasks.remove(task);
-                        load -= task.weight;
-                    } else {
-                        carriedTasks.add(task);
-                        load += task.weight;
-                        if (load > capacity) {
-                            return false;
-                        }
-                    }
+        enum Cooling {LINEAR, EXPONENTIAL}
+
+        private final double initialTemperature;
+        private final double finalTemperature;
+        private final Cooling cooling;
+
+        private Annealing(double initialTemperature, double finalTemperature, Cooling cooling){
+            this.initialTemperature = initialTemperature;
+            this.finalTemperature = finalTemperature;
+            this.cooling = cooling;
+        }
+
+        @Override
+        public Assignment next(Assignment A_old, Set<Assignment> N, Random rand, double progress){
+            if(N.isEmpty()){
+                return A_old;
+            }
+            Iterator<Assignment> neighbours = N.iterator();
+            for(int k = rand.nextInt(N.size()); k > 0; k--){
+                neighbours.next();
+            }
+            Assignment A = neighbours.next();
+
+            double increase = A.cost() - A_old.cost();
+            if(increase <= 0 || rand.nextDouble() < Math.exp(-increase / temperature(progress))){
+                return A;
+            }
+            return A_old;
+        }
+
+        private double temperature(double progress){
+            switch (cooling) {
+                case LINEAR:
+                    return initialTemperature + (finalTemperature - initialTemperature) * progress;
+                case EXPONENTIAL:
+                    return initialTemperature * Math.pow(finalTemperature / initialTemperature, progress);
+                default:
+                    throw new AssertionError("Should not happen.");
+            }
+        }
+    }
+
+    /**
+     * Tabu search: the cheapest neighbour, even if worse than the current
+     * assignment, whose move is not tabu. Undoing a move is tabu for the next
+     * tenure iterations, unless it gives a cost never reached before.
+     */
+    private static class Tabu implements Metaheuristic {
+
+        // key of an assignment no move made: transfer keys are not negative and swap keys never -1
+        private static final long NO_MOVE = -1;
+
+        private final int tenure;
+        // move key -> last iteration at which the move is tabu
+        private final Map<Long, Long> tabuUntil = new HashMap<>();
+        private long iteration;
+        private double bestCost = Double.MAX_VALUE;
+
+        private Tabu(int tenure){
+            this.tenure = tenure;
+        }
+
+        // the cheapest of a single random neighbourhood is too often a bad move
+        @Override
+        public int neighbourhoods(){
+            return 10;
+        }
+
+        // moving the task to the vehicle
+        private static long transferKey(Task task, int vehicle){
+            return (long) task.id << 32 | vehicle;
+        }
+
+        // swapping the pickups or deliveries of the two tasks, in either order
+        private static long swapKey(Task a, Task b){
+            return 1L << 63 | (long) Math.min(a.id, b.id) << 32 | Math.max(a.id, b.id);
+        }
+
+        @Override
+        public Assignment next(Assignment A_old, Set<Assignment> N, Random rand, double progress){
+            iteration++;
+            Assignment bestA = null;
+            for(Assignment A: N){
+                boolean tabu = A.move != NO_MOVE && tabuUntil.getOrDefault(A.move, -1L) >= iteration;
+                if((!tabu || A.cost() < bestCost) && (bestA == null || A.cost() < bestA.cost())){
+                    bestA = A;
                 }
             }
-            return true;
+            if(bestA == null){
+                return A_old;
+            }
+
+            if(bestA.reverseMove != NO_MOVE){
+                tabuUntil.put(bestA.reverseMove, iteration + tenure);
+            }
+            bestCost = Math.min(bestCost, bestA.cost());
+            return bestA;
         }
     }
 }
\ No newline at end of file
@@ -26,6 +26,7 @@ public class AuctionTemplate implements AuctionBehavior {
 
 	private Topology topology;
 	private TaskDistribution distribution;
+	private TopologyCache distances;
 	private Agent agent;
 	private Random random;
 
@@ -60,6 +61,7 @@ public class AuctionTemplate implements AuctionBehavior {
 
         this.topology = topology;
         this.distribution = distribution;
+        this.distances = TopologyCache.of(topology);
         this.agent = agent;
 
         long seed = -9019554669489983951L * agent.vehicles().get(0).homeCity().hashCode() * agent.id();
@@ -123,6 +125,9 @@ public class AuctionTemplate implements AuctionBehavior {
 
         //Add task to domain and search for good solution
         nextA = initialAssignmentWithNewTask(currentA, task);
+        if(!nextA.isValid()) {
+            return null;
+        }
         nextA = stochasticLocalSearchTimeBased(nextA, timeout_auction);
 
         this.newCost = nextA.cost();
@@ -151,7 +156,7 @@ public class AuctionTemplate implements AuctionBehavior {
 
         double bid = marginalCost * speculation;
 
-        double distanceTask = newTask.pickupCity.distanceTo(newTask.deliveryCity) * currentA.D.vehicles.get(0).costPerKm();
+        double distanceTask = distances.distance(newTask.pickupCity, newTask.deliveryCity) * currentA.D.vehicles.get(0).costPerKm();
 
         //Average opponent bids
         long avgBidOpponent = opponentBids.stream().mapToLong(Long::longValue).sum();
@@ -221,7 +226,7 @@ public class AuctionTemplate implements AuctionBehavior {
         finalA = selectInitialSolution(finalA.X, finalA.D, finalA.C);
         finalA = stochasticLocalSearchTimeBased(finalA, timeout_plan);
 
-        if(currentA.cost() < finalA.cost()) {
+        if(!finalA.isValid() || currentA.cost() < finalA.cost()) {
             finalA = currentA;
             convertAssignmentTasks(finalA, tasks);
         }
@@ -261,14 +266,14 @@ public class AuctionTemplate implements AuctionBehavior {
             List<Task> carriedTasks = new ArrayList<>();
             for(Task task: entry.getValue()){
                 if(!carriedTasks.contains(task)) {
-                    for (City city : currentCity.pathTo(task.pickupCity)) {
+                    for (City city : distances.path(currentCity, task.pickupCity)) {
                         plan.appendMove(city);
                     }
                     currentCity = task.pickupCity;
                     plan.appendPickup(task);
                     carriedTasks.add(task);
                 }else{
-                    for (City city : currentCity.pathTo(task.deliveryCity)) {
+                    for (City city : distances.path(currentCity, task.deliveryCity)) {
                         plan.appendMove(city);
                     }
                     currentCity = task.deliveryCity;
@@ -392,6 +397,10 @@ public class AuctionTemplate implements AuctionBehavior {
         int vehicleIndex = 0;
 
         for(Task task: tasks){
+            //skip the vehicles too small for the task, unless none can carry it
+            for(int k = 0; k < nbVehicles && D.vehicles.get(vehicleIndex).capacity() < task.weight; k++){
+                vehicleIndex = (vehicleIndex + 1) % nbVehicles;
+            }
             X.nextAction.get(D.vehicles.get(vehicleIndex)).add(task);
             X.nextAction.get(D.vehicles.get(vehicleIndex)).add(task);
             vehicleIndex = (vehicleIndex + 1) % nbVehicles;
@@ -403,13 +412,20 @@ public class AuctionTemplate implements AuctionBehavior {
     private Assignment initialAssignmentWithNewTask(Assignment A, Task newTask) {
 
         Assignment newA = new Assignment(A);
-
-        Domain D = new Domain(A.D);
         newA.D.tasks.add(newTask);
 
-        //add the new Task to the first vehicle
-        newA.X.nextAction.get(D.vehicles.get(0)).add(newTask);
-        newA.X.nextAction.get(D.vehicles.get(0)).add(newTask);
+        //add the new Task at the end of the route of the first vehicle that can carry it
+        Vehicle vehicle = newA.D.vehicles.get(0);
+        for(Vehicle candidate: newA.D.vehicles){
+            if(candidate.capacity() >= newTask.weight){
+                vehicle = candidate;
+                break;
+            }
+        }
+        List<Task> vehicleTasks = new ArrayList<>(newA.X.nextAction.get(vehicle));
+        vehicleTasks.add(newTask);
+        vehicleTasks.add(newTask);
+        newA.setRoute(vehicle, vehicleTasks);
 
         return newA;
     }
@@ -465,7 +481,7 @@ public class AuctionTemplate implements AuctionBehavior {
         List<Task> randomVehicleTasks = new ArrayList<>(A_old.X.nextAction.get(randomVehicle));
         if(!randomVehicleTasks.get(i).equals(randomVehicleTasks.get(j))) {
             Collections.swap(randomVehicleTasks, i, j);
-            A.X.nextAction.put(randomVehicle, randomVehicleTasks);
+            A.setRoute(randomVehicle, randomVehicleTasks);
             return A;
         }
 
@@ -491,8 +507,8 @@ public class AuctionTemplate implements AuctionBehavior {
                 vehicleTasks.add(random.nextInt(vehicleTasks.size()), randomTask);
             }
 
-            A.X.nextAction.put(randomVehicle, randomVehicleTasks);
-            A.X.nextAction.put(vehicle, vehicleTasks);
+            A.setValidRoute(randomVehicle, randomVehicleTasks);
+            A.setRoute(vehicle, vehicleTasks);
             return A;
         }
 
@@ -504,26 +520,50 @@ public class AuctionTemplate implements AuctionBehavior {
         private Variable X;
         private Domain D;
         private Constraint C;
+        // the routes changed since the copy that still have to be checked, null if none
+        private List<Vehicle> uncheckedRoutes;
 
+        // the routes of X were built directly, so all of them are checked once
         private Assignment(Variable X, Domain D, Constraint C){
             this.X = X;
             this.D = D;
             this.C = C;
+            this.uncheckedRoutes = new ArrayList<>(D.vehicles);
         }
 
         private Assignment(Assignment A){
             this.X = new Variable(A.X);
             this.D = new Domain(A.D);
             this.C = A.C;
+            if(A.uncheckedRoutes != null){
+                this.uncheckedRoutes = new ArrayList<>(A.uncheckedRoutes);
+            }
         }
 
-        private boolean isValid(){
+        private void setRoute(Vehicle vehicle, List<Task> route){
+            setValidRoute(vehicle, route);
+            if(uncheckedRoutes == null){
+                uncheckedRoutes = new ArrayList<>(2);
+            }
+            uncheckedRoutes.add(vehicle);
+        }
 
-            boolean b1 = C.c1(X, D);
-            boolean b2 = C.c2(X, D);
-            boolean b3 = C.c3(X, D);
+        // for a route that cannot break the constraints, e.g. a valid one with a task removed
+        private void setValidRoute(Vehicle vehicle, List<Task> route){
+            X.nextAction.put(vehicle, route);
+        }
 
-            return b1 && b2 && b3;
+        // the moves keep every task in exactly one route, only the changed routes are checked
+        private boolean isValid(){
+            if(uncheckedRoutes != null){
+                for(Vehicle vehicle: uncheckedRoutes){
+                    if(!C.isValidRoute(X.nextAction.get(vehicle), vehicle.capacity())){
+                        return false;
+                    }
+                }
+                uncheckedRoutes = null;
+            }
+            return true;
         }
 
         private double cost(){
@@ -535,7 +575,7 @@ public class AuctionTemplate implements AuctionBehavior {
 
                 if(!vehicleTasks.isEmpty()) {
                     City currentCity = vehicleTasks.get(0).pickupCity;
-                    double vehicleDistance = vehicle.homeCity().distanceTo(currentCity);
+                    double vehicleDistance = distances.distance(vehicle.homeCity(), currentCity);
 
                     List<Task> tasksToDeliver = new ArrayList<>();
                     tasksToDeliver.add(vehicleTasks.get(0));
@@ -543,11 +583,11 @@ public class AuctionTemplate implements AuctionBehavior {
                     for (int i = 1; i < vehicleTasks.size(); i++) {
                         Task task = vehicleTasks.get(i);
                         if (tasksToDeliver.contains(task)) {
-                            vehicleDistance += currentCity.distanceTo(task.deliveryCity);
+                            vehicleDistance += distances.distance(currentCity, task.deliveryCity);
                             currentCity = task.deliveryCity;
                             tasksToDeliver.remove(task);
                         } else {
-                            vehicleDistance += currentCity.distanceTo(task.pickupCity);
+                            vehicleDistance += distances.distance(currentCity, task.pickupCity);
                             currentCity = task.pickupCity;
                             tasksToDeliver.add(task);
                         }
@@ -613,64 +653,42 @@ public class AuctionTemplate implements AuctionBehavior {
 
     private static class Constraint {
 
-        //same tasks are not assigned to different vehicles
-        private boolean c1(Variable X, Domain D){
+        // by task id: 2*check once picked up in the route being checked, 2*check+1 once delivered
+        private int[] marks = new int[0];
+        private int check;
 
-            Set<Task> tasks = new HashSet<>(D.tasks);
+        //each task of the route is picked up then delivered exactly once, and the load never exceeds the capacity
+        private boolean isValidRoute(List<Task> route, int capacity){
 
-            for(Map.Entry<Vehicle, List<Task>> entry: X.nextAction.entrySet()){
-                Set<Task> vehicleTasks = new HashSet<>(entry.getValue());
-                for(Task vehicleTask: vehicleTasks) {
-                    if(!tasks.remove(vehicleTask)){
-                        return false;
-                    }
-                }
+            if(++check >= Integer.MAX_VALUE / 2){
+                Arrays.fill(marks, 0);
+                check = 1;
             }
-            return tasks.isEmpty();
-        }
-
-        //each task is picked up and delivered only once
-        private boolean c2(Variable X, Domain D){
+            int pickedUp = 2*check;
+            int load = 0;
+            int carried = 0;
 
-            for(Map.Entry<Vehicle, List<Task>> entry: X.nextAction.entrySet()) {
-                List<Task> vehicleTasks = new ArrayList<>(entry.getValue());
-                while(!vehicleTasks.isEmpty()){
-                    int listSize = vehicleTasks.size();
-                    Task vehicleTask = vehicleTasks.remove(0);
-                    vehicleTasks.removeAll(Collections.singleton(vehicleTask));
-                    if(listSize - vehicleTasks.size() != 2){
-                        return false;
-                    }
+            for(Task task: route){
+                if(task.id >= marks.length){
+                    marks = Arrays.copyOf(marks, Math.max(2*marks.length, task.id + 1));
                 }
-            }
-            return true;
-        }
-
-        //load does not exceed capacity
-        private boolean c3(Variable X, Domain D){
-
-            for(Map.Entry<Vehicle, List<Task>> entry: X.nextAction.entrySet()) {
-
-                List<Task> vehicleTasks = entry.getValue();
-                List<Task> carriedTasks = new ArrayList<>();
-
-                double load = 0;
-                int capacity = entry.getKey().capacity();
-
-                for(Task task: vehicleTasks){
-                    if(carriedTasks.contains(task)){
-                        carriedTasks.remove(task);
-                        load -= task.weight;
-                    } else {
-                        carriedTasks.add(task);
-                        load += task.weight;
-                        if (load > capacity) {
-                            return false;
-                        }
+                int mark = marks[task.id];
+                if(mark < pickedUp){
+                    marks[task.id] = pickedUp;
+                    load += task.weight;
+                    carried++;
+                    if(load > capacity){
+                        return false;
                     }
+                } else if(mark == pickedUp){
+                    marks[task.id] = pickedUp + 1;
+                    load -= task.weight;
+                    carried--;
+                } else {
+                    return false;
                 }
             }
-            return true;
+            return carried == 0;
         }
     }
 }